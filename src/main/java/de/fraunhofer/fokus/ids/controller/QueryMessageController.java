@@ -1,42 +1,102 @@
 package de.fraunhofer.fokus.ids.controller;
 
 import de.fraunhofer.fokus.ids.services.IDSService;
-import de.fraunhofer.fokus.ids.utils.TSConnector;
+import de.fraunhofer.fokus.ids.utils.MultipartResponse;
+import de.fraunhofer.fokus.ids.utils.QueryGate;
+import de.fraunhofer.fokus.ids.utils.QueryResultCache;
+import de.fraunhofer.fokus.ids.utils.TripleStore;
 import de.fraunhofer.iais.eis.RejectionReason;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
-import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import org.apache.http.HttpEntity;
+import io.vertx.core.streams.ReadStream;
 
 import java.net.URI;
 
 public class QueryMessageController {
-    private TSConnector tsConnector;
+    private static final String RESULT_TYPE = "application/json";
+    private TripleStore tripleStore;
     private IDSService idsService;
+    private QueryResultCache queryResultCache;
+    private QueryGate queryGate;
     private Logger LOGGER = LoggerFactory.getLogger(QueryMessageController.class.getName());
 
 
-    public QueryMessageController(TSConnector tsConnector, Vertx vertx){
-        this.tsConnector = tsConnector;
-        this.idsService = new IDSService(vertx,tsConnector);
+    public QueryMessageController(TripleStore tripleStore, IDSService idsService, QueryResultCache queryResultCache, QueryGate queryGate){
+        this.tripleStore = tripleStore;
+        this.idsService = idsService;
+        this.queryResultCache = queryResultCache;
+        this.queryGate = queryGate;
     }
 
-    public void queryMessage(String query , URI correlationMessageURI, Handler<AsyncResult<HttpEntity>> resultHandler) {
-        tsConnector.query(query,"application/json",httpResponseAsyncResult -> {
+    /**
+     * The query passes the query gate first, which bounds its result size, the rate of queries of the issuing connector
+     * and the number of queries it runs at once. Cached results are answered directly once the rate admits the query,
+     * without taking one of the connector's slots. Otherwise the result is not buffered: the Virtuoso
+     * response body is piped into the payload part of the reply as it arrives, and stored in the cache if it is small
+     * enough.
+     */
+    public void queryMessage(String payload, URI correlationMessageURI, String issuerConnector, Handler<AsyncResult<MultipartResponse>> resultHandler) {
+        String query;
+        try {
+            query = queryGate.prepare(payload);
+        } catch (QueryGate.RejectedQueryException e) {
+            LOGGER.info("Query rejected. " + e.getMessage());
+            idsService.handleRejectionMessage(e.getRejectionReason(), correlationMessageURI, resultHandler);
+            return;
+        }
+        Buffer cachedResult = queryResultCache.get(query, RESULT_TYPE);
+        if (cachedResult != null) {
+            try {
+                queryGate.admitCached(issuerConnector);
+            } catch (QueryGate.RejectedQueryException e) {
+                LOGGER.info("Query of " + issuerConnector + " rejected. " + e.getMessage());
+                idsService.handleRejectionMessage(e.getRejectionReason(), correlationMessageURI, resultHandler);
+                return;
+            }
+            idsService.createResultMessage(correlationMessageURI, reply -> {
+                if (reply.succeeded()) {
+                    idsService.createMultiPartMessage(correlationMessageURI, reply.result(), RESULT_TYPE, cachedResult, resultHandler);
+                } else {
+                    LOGGER.error(reply.cause());
+                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, correlationMessageURI, resultHandler);
+                }
+            });
+            return;
+        }
+        queryGate.acquire(issuerConnector, permitReply -> {
+            if (permitReply.succeeded()) {
+                execute(query, correlationMessageURI, permitReply.result(), resultHandler);
+            } else if (permitReply.cause() instanceof QueryGate.RejectedQueryException) {
+                LOGGER.info("Query of " + issuerConnector + " rejected. " + permitReply.cause().getMessage());
+                idsService.handleRejectionMessage(((QueryGate.RejectedQueryException) permitReply.cause()).getRejectionReason(), correlationMessageURI, resultHandler);
+            } else {
+                LOGGER.error(permitReply.cause());
+                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, correlationMessageURI, resultHandler);
+            }
+        });
+    }
+
+    private void execute(String query, URI correlationMessageURI, QueryGate.Permit permit, Handler<AsyncResult<MultipartResponse>> resultHandler) {
+        long generation = queryResultCache.generation();
+        tripleStore.queryStream(query,RESULT_TYPE,queryGate.timeout(),httpResponseAsyncResult -> {
             if (httpResponseAsyncResult.succeeded()) {
                 LOGGER.info("Query Message succeeded");
+                ReadStream<Buffer> result = permit.releaseOnEnd(httpResponseAsyncResult.result());
                 idsService.createResultMessage(correlationMessageURI, reply -> {
                 if(reply.succeeded()){
-                    idsService.createMultiPartMessage(correlationMessageURI, reply.result(), httpResponseAsyncResult.result().bodyAsJsonObject(),resultHandler);
+                    idsService.createStreamedMultiPartMessage(correlationMessageURI, reply.result(), RESULT_TYPE, queryResultCache.recording(query, RESULT_TYPE, generation, result), resultHandler);
                 } else {
                     LOGGER.error(reply.cause());
+                    result.resume();
                     idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,correlationMessageURI,resultHandler);
                 }
                 });
             }
             else{
+                permit.release();
                 LOGGER.error(httpResponseAsyncResult.cause());
                 idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,correlationMessageURI,resultHandler);
             }
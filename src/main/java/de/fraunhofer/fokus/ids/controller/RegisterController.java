@@ -5,20 +5,24 @@ import de.fraunhofer.fokus.ids.manager.DatasetManager;
 import de.fraunhofer.fokus.ids.manager.GraphManager;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageService;
-import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformerService;
-import de.fraunhofer.fokus.ids.utils.TSConnector;
+import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformer;
+import de.fraunhofer.fokus.ids.utils.ContentHash;
+import de.fraunhofer.fokus.ids.utils.FanOut;
+import de.fraunhofer.fokus.ids.utils.MultipartResponse;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
 import io.vertx.core.*;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import org.apache.http.HttpEntity;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 public class RegisterController {
     private Logger LOGGER = LoggerFactory.getLogger(RegisterController.class.getName());
@@ -28,19 +32,21 @@ public class RegisterController {
     private DatasetManager datasetManager;
     private IDSService idsService;
     private PiveauMessageService piveauMessageService;
-    private DCATTransformerService dcatTransformerService;
+    private DCATTransformer dcatTransformer;
+    private FanOut fanOut;
     private Serializer serializer = new Serializer();
 
-    public RegisterController(Vertx vertx, GraphManager graphManager,TSConnector tsConnector){
+    public RegisterController(Vertx vertx, GraphManager graphManager, IDSService idsService, FanOut fanOut, DCATTransformer dcatTransformer){
         this.graphManager = graphManager;
+        this.fanOut = fanOut;
         this.catalogueManager = new CatalogueManager(vertx);
         this.datasetManager = new DatasetManager(vertx);
-        this.idsService = new IDSService(vertx,tsConnector);
+        this.idsService = idsService;
         this.piveauMessageService = PiveauMessageService.createProxy(vertx, PiveauMessageService.ADDRESS);
-        this.dcatTransformerService = DCATTransformerService.createProxy(vertx, DCATTransformerService.ADDRESS);
+        this.dcatTransformer = dcatTransformer;
     }
 
-    public void registerResourceAvailableMessage(URI uri, String issuerConnector, Resource resource, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    public void registerResourceAvailableMessage(URI uri, String issuerConnector, Resource resource, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         catalogueManager.getCatalogueByExternalId(issuerConnector, next -> {
             if (next.succeeded()) {
                 String cataloguePiveauId = next.result().getString("internal_id");
@@ -51,9 +57,7 @@ public class RegisterController {
                             LOGGER.info("Dataset " + resource.getId().toString() + " is already registered in the internal database. Rejecting ResrouceAvailableMessage.");
                             idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
                         } else {
-                            java.util.Map<String, Promise> dataassetCreatePromises = new HashMap<>();
-                            saveDatasetInDatabase(uri,cataloguePiveauId,resource,dataassetCreatePromises,readyHandler);
-                            composeAllPromises(uri,readyHandler,dataassetCreatePromises);
+                            createDatasets(uri, cataloguePiveauId, readyHandler, Collections.singletonList(resource));
                         }
                     });
                 }
@@ -63,7 +67,7 @@ public class RegisterController {
             }
         });
     }
-    public void register(URI uri, Connector connector, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    public void register(URI uri, Connector connector, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         String catalogueId = UUID.randomUUID().toString();
         catalogueManager.getCatalogueByExternalId(connector.getId().toString(),next->{
             if (next.succeeded()) {
@@ -74,18 +78,16 @@ public class RegisterController {
                 try {
                     graphManager.create(connector.getId().toString(), serializer.serialize(connector), graphCreationResult -> {
                         if (graphCreationResult.succeeded()) {
-                            try {
-                                dcatTransformerService.transformCatalogue(serializer.serialize(connector), null, catalogueTTLResult -> {
-                                    if (catalogueTTLResult.succeeded()) {
-                                        piveauMessageService.createCatalogue(catalogueTTLResult.result(), catalogueId, piveauCatalogueReply ->
-                                                createCatalogueInternal(piveauCatalogueReply, catalogueId, connector.getId().toString(), internalCatalogueReply ->
-                                                        handleDatasetCreation(internalCatalogueReply, uri, connector, catalogueId, readyHandler)));
-                                    }
-                                });
-                            } catch (IOException e) {
-                                LOGGER.error(e);
-                                readyHandler.handle(Future.failedFuture(e));
-                            }
+                            dcatTransformer.transformCatalogue(connector, null, catalogueTTLResult -> {
+                                if (catalogueTTLResult.succeeded()) {
+                                    piveauMessageService.createCatalogue(catalogueTTLResult.result(), catalogueId, piveauCatalogueReply ->
+                                            createCatalogueInternal(piveauCatalogueReply, catalogueId, connector.getId().toString(), internalCatalogueReply ->
+                                                    handleDatasetCreation(internalCatalogueReply, uri, connector, catalogueId, readyHandler)));
+                                } else {
+                                    LOGGER.error(catalogueTTLResult.cause());
+                                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                                }
+                            });
                         } else {
                             LOGGER.error(graphCreationResult.cause());
                             idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
@@ -114,75 +116,102 @@ public class RegisterController {
             next.handle(Future.failedFuture(reply.cause()));
         }
     }
-    private void saveDatasetInDatabase(URI uri, String catalogueId, Resource resource, java.util.Map<String, Promise> dataassetCreatePromises, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    private void saveDatasetInDatabase(String catalogueId, Resource resource, Promise<String> datasetPromise) {
         StaticEndpoint staticEndpoint = (StaticEndpoint) resource.getResourceEndpoint().get(0);
         String date = staticEndpoint.getEndpointArtifact().getCreationDate().toString();
+        dcatTransformer.transformDataset(resource, date, dataSetTransformResult -> {
+            if (dataSetTransformResult.succeeded()) {
+                String datasetId = UUID.randomUUID().toString();
+                createDataSet(dataSetTransformResult.result(), datasetId, catalogueId, datasetPromise);
+            } else {
+                LOGGER.error(dataSetTransformResult.cause());
+                datasetPromise.fail(dataSetTransformResult.cause());
+            }
+        });
+    }
+
+    /**
+     * Create the graphs of the datasets in one batch, then create the datasets in piveau, a window of them at a time,
+     * and store the created ones with the content hashes of their descriptions in the internal database in one batch.
+     * The graphs of datasets that could not be created in piveau are removed again.
+     */
+    private void createDatasets(URI uri, String catalogueId, Handler<AsyncResult<MultipartResponse>> readyHandler, List<Resource> resources) {
+        java.util.Map<String, String> serializedResources = new LinkedHashMap<>();
+        java.util.Map<String, String> contentHashes = new HashMap<>();
         try {
-            graphManager.create(resource.getId().toString(), serializer.serialize(resource), graphResult -> {
-                if (graphResult.succeeded()) {
-                    try {
-                        dcatTransformerService.transformDataset(serializer.serialize(resource), date, dataSetTransformResult -> {
-                            if (dataSetTransformResult.succeeded()) {
-                                dataassetCreatePromises.put(resource.getId().toString(), Promise.promise());
-                                String datasetId = UUID.randomUUID().toString();
-                                createDataSet(dataSetTransformResult.result(), resource.getId().toString(), datasetId, catalogueId, dataassetCreatePromises);
-                            } else {
-                                LOGGER.error(dataSetTransformResult.cause());
-                                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                            }
-                        });
-                    } catch (IOException e) {
-                        LOGGER.error(e);
-                        readyHandler.handle(Future.failedFuture(e));
-                    }
-                } else {
-                    LOGGER.error(graphResult.cause());
-                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                }
-            });
+            for (Resource resource : resources) {
+                String serializedResource = serializer.serialize(resource);
+                serializedResources.put(resource.getId().toString(), serializedResource);
+                contentHashes.put(resource.getId().toString(), ContentHash.of(serializedResource));
+            }
         } catch (IOException e) {
             LOGGER.error(e);
-            readyHandler.handle(Future.failedFuture(e));
+            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+            return;
         }
+        graphManager.createAll(serializedResources, graphResult -> {
+            if (graphResult.failed()) {
+                LOGGER.error(graphResult.cause());
+                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                return;
+            }
+            persistDatasets(uri, catalogueId, readyHandler, resources, contentHashes);
+        });
     }
 
-    private void composeAllPromises(URI uri, Handler<AsyncResult<HttpEntity>> readyHandler, java.util.Map<String, Promise> dataassetCreatePromises) {
-        CompositeFuture.all(dataassetCreatePromises.values().stream().map(Promise::future).collect(Collectors.toList())).setHandler(ac -> {
-            if (ac.succeeded()) {
-                idsService.handleSucceededMessage(uri, readyHandler);
-            } else {
-                LOGGER.error(ac.cause());
-                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+    private void persistDatasets(URI uri, String catalogueId, Handler<AsyncResult<MultipartResponse>> readyHandler, List<Resource> resources,
+                                 java.util.Map<String, String> contentHashes) {
+        fanOut.<Resource, String>all(resources, (resource, next) -> {
+            Promise<String> datasetPromise = Promise.promise();
+            datasetPromise.future().setHandler(ar -> next.handle(Future.succeededFuture(ar.succeeded() ? ar.result() : null)));
+            saveDatasetInDatabase(catalogueId, resource, datasetPromise);
+        }, ac -> {
+            java.util.Map<String, String> datasetIds = new HashMap<>();
+            List<String> failedDatasets = new ArrayList<>();
+            for (int i = 0; i < resources.size(); i++) {
+                if (ac.result().get(i) != null) {
+                    datasetIds.put(resources.get(i).getId().toString(), ac.result().get(i));
+                } else {
+                    failedDatasets.add(resources.get(i).getId().toString());
+                }
             }
+            failedDatasets.forEach(id -> graphManager.delete(id, reply -> {
+                if (reply.failed()) {
+                    LOGGER.error("Graph of dataset " + id + " could not be removed.", reply.cause());
+                }
+            }));
+            datasetManager.createAll(catalogueId, datasetIds, contentHashes, datasetPersistenceReply -> {
+                if (datasetPersistenceReply.succeeded() && failedDatasets.isEmpty()) {
+                    idsService.handleSucceededMessage(uri, readyHandler);
+                } else {
+                    if (datasetPersistenceReply.failed()) {
+                        LOGGER.error(datasetPersistenceReply.cause());
+                    } else {
+                        LOGGER.error(failedDatasets.size() + " of " + resources.size() + " datasets could not be created: " + failedDatasets);
+                    }
+                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                }
+            });
         });
     }
 
-    private void handleDatasetCreation( AsyncResult<Void> internalCatalogueCreationReply, URI uri, Connector connector, String catalogueId, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    private void handleDatasetCreation( AsyncResult<Void> internalCatalogueCreationReply, URI uri, Connector connector, String catalogueId, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         if (internalCatalogueCreationReply.succeeded()) {
-                    java.util.Map<String, Promise> dataassetCreatePromises = new HashMap<>();
                     if (connector.getCatalog() != null) {
-                        for (Resource resource : connector.getCatalog().getOffer()) {
-                            saveDatasetInDatabase(uri,catalogueId,resource,dataassetCreatePromises,readyHandler);
-                        }
-                        composeAllPromises(uri,readyHandler,dataassetCreatePromises);
+                        createDatasets(uri, catalogueId, readyHandler, connector.getCatalog().getOffer());
                     }
         } else {
             idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
         }
     }
 
-    private void createDataSet(String transformedDataset, String datasetExternalId, String dataSetId, String catalogueId, java.util.Map<String, Promise> datasetUpdateFutures) {
+    private void createDataSet(String transformedDataset, String dataSetId, String catalogueId, Promise<String> datasetPromise) {
         piveauMessageService.createDataSet(transformedDataset, dataSetId, catalogueId, datasetReply -> {
             if (datasetReply.succeeded()) {
-                datasetManager.create(datasetExternalId, dataSetId, datasetPersistenceReply2 -> {
-                    if (datasetPersistenceReply2.succeeded()) {
-                        datasetUpdateFutures.get(datasetExternalId).complete();
-                    } else {
-                        datasetUpdateFutures.get(datasetExternalId).fail(datasetPersistenceReply2.cause());
-                    }
-                });
+                datasetPromise.complete(dataSetId);
             } else {
                 LOGGER.error(datasetReply.cause());
+                datasetPromise.fail(datasetReply.cause());
             }
         });
     }
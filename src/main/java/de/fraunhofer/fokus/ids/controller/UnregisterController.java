@@ -5,7 +5,8 @@ import de.fraunhofer.fokus.ids.manager.DatasetManager;
 import de.fraunhofer.fokus.ids.manager.GraphManager;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageService;
-import de.fraunhofer.fokus.ids.utils.TSConnector;
+import de.fraunhofer.fokus.ids.utils.FanOut;
+import de.fraunhofer.fokus.ids.utils.MultipartResponse;
 import de.fraunhofer.iais.eis.Connector;
 import de.fraunhofer.iais.eis.RejectionReason;
 import de.fraunhofer.iais.eis.Resource;
@@ -13,11 +14,12 @@ import io.vertx.core.*;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import org.apache.http.HttpEntity;
 
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class UnregisterController {
@@ -29,16 +31,18 @@ public class UnregisterController {
     private DatasetManager datasetManager;
     private IDSService idsService;
     private PiveauMessageService piveauMessageService;
+    private FanOut fanOut;
 
-    public UnregisterController(Vertx vertx, GraphManager graphManager,TSConnector tsConnector){
+    public UnregisterController(Vertx vertx, GraphManager graphManager, IDSService idsService, FanOut fanOut){
         this.graphManager = graphManager;
+        this.fanOut = fanOut;
         this.catalogueManager = new CatalogueManager(vertx);
         this.datasetManager = new DatasetManager(vertx);
-        this.idsService = new IDSService(vertx,tsConnector);
+        this.idsService = idsService;
         this.piveauMessageService = PiveauMessageService.createProxy(vertx, PiveauMessageService.ADDRESS);
     }
 
-    public void unregisterSingleDataset(URI uri, String issuerConnector, Resource resource, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    public void unregisterSingleDataset(URI uri, String issuerConnector, Resource resource, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         catalogueManager.getCatalogueByExternalId(issuerConnector, next -> {
             if (next.succeeded()) {
                 String cataloguePiveauId = next.result().getString("internal_id");
@@ -65,6 +69,8 @@ public class UnregisterController {
                                                                 LOGGER.error(internalDatasetDeleteResult.cause());
                                                             }
                                                         });
+                                                    } else {
+                                                        idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
                                                     }
                                                 });
                                             } else {
@@ -96,54 +102,28 @@ public class UnregisterController {
     }
 
 
-    public void unregister(URI uri, Connector connector, Handler<AsyncResult<HttpEntity>> readyHandler) {
-        java.util.Map<String, Promise> datasetDeletePromises = new HashMap<>();
-
+    public void unregister(URI uri, Connector connector, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         catalogueManager.getCatalogueByExternalId(connector.getId().toString(), catalogueIdResult -> {
             if (catalogueIdResult.succeeded()) {
                 String cataloguePiveauId = catalogueIdResult.result().getString("internal_id");
                 graphManager.delete(connector.getId().toString(),reply->{});
-                datasetManager.dataAssetIdsOfCatalogue(cataloguePiveauId, piveauDatasetIds -> {
-
-                    resolvePiveauIds(piveauDatasetIds,mapAsyncResult -> {
-                        for (String externalId : mapAsyncResult.result().keySet()){
-                            graphManager.delete(externalId,reply->{});
-                        }});
-
-                    if (piveauDatasetIds.succeeded()) {
-                        if (!piveauDatasetIds.result().isEmpty()) {
-                            for (String id : piveauDatasetIds.result()) {
-                                Promise datasetDeletePromise = Promise.promise();
-                                datasetDeletePromises.put(id, datasetDeletePromise);
-                                deleteDatasetPiveau(id, cataloguePiveauId, next -> datasetManager.deleteByInternalId(id, result -> handleDataSetFuture(result, id, datasetDeletePromises)));
-                            }
-                        }
-                        for (Resource dataasset : connector.getCatalog().getOffer()) {
-                            Promise datasetDeleteFuture = Promise.promise();
-                            datasetDeletePromises.put(dataasset.getId().toString(), datasetDeleteFuture);
-                            datasetManager.findByExternalId(dataasset.getId().toString(), datasetIdreply -> {
-                                if (datasetIdreply.succeeded()) {
-                                    if (!datasetIdreply.result().isEmpty()) {
-                                        String datasetPiveauId = datasetIdreply.result().getString("internal_id");
-                                        String datasetId = datasetIdreply.result().getString("external_id");
-                                        if(!datasetDeletePromises.keySet().contains(datasetPiveauId)) {
-                                            deleteDatasetPiveau(datasetPiveauId, cataloguePiveauId, externalDeleteReply ->
-                                                    deleteDatasetInternal(externalDeleteReply, datasetPiveauId, datasetId, datasetDeletePromises));
-                                        } else {
-                                            datasetDeleteFuture.complete();
-                                        }
+                datasetManager.findAllByCatalogue(cataloguePiveauId, catalogueDatasets -> {
+                    if (catalogueDatasets.succeeded()) {
+                        java.util.List<String> offerIds = connector.getCatalog() == null ? new ArrayList<>()
+                                : connector.getCatalog().getOffer().stream().map(r -> r.getId().toString()).collect(Collectors.toList());
+                        fanOut.<String, Void>all(catalogueDatasets.result().keySet(), (externalId, next) ->
+                                graphManager.delete(externalId, reply -> next.handle(Future.succeededFuture())), graphDeleteReply ->
+                                datasetManager.findAllByExternalIds(offerIds, datasetsReply -> {
+                                    if (datasetsReply.succeeded()) {
+                                        deleteDatasets(new ArrayList<>(catalogueDatasets.result().values()), datasetsReply.result(), cataloguePiveauId, datasetDeleteReply ->
+                                                handleCatalogue(uri, datasetDeleteReply, cataloguePiveauId, readyHandler));
                                     } else {
-                                        datasetDeleteFuture.complete();
+                                        LOGGER.error(datasetsReply.cause());
+                                        idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
                                     }
-                                } else {
-                                    LOGGER.error(datasetIdreply.cause());
-                                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                                }
-                            });
-                        }
-                        handleCatalogue(uri, new ArrayList<>(datasetDeletePromises.values()), cataloguePiveauId, readyHandler);
+                                }));
                     } else {
-                        LOGGER.error(piveauDatasetIds.cause());
+                        LOGGER.error(catalogueDatasets.cause());
                         idsService.handleRejectionMessage(RejectionReason.NOT_FOUND, uri, readyHandler);
                     }
                 });
@@ -153,33 +133,49 @@ public class UnregisterController {
         });
     }
 
-    private void handleCatalogue(URI uri, java.util.List<Promise> datasetDeletePromises, String catalogueIdResult, Handler<AsyncResult<HttpEntity>> readyHandler) {
-        CompositeFuture.all(datasetDeletePromises.stream().map(Promise::future).collect(Collectors.toList())).setHandler(reply -> {
-            if (reply.succeeded()) {
-                deleteCatalogueExternal(reply, catalogueIdResult, externalCatalogueDeleteReply ->
-                        deleteCatalogueInternal(uri, externalCatalogueDeleteReply, catalogueIdResult, readyHandler));
-            } else {
-                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+    /**
+     * Delete the datasets of the catalogue and the offered datasets known internally from piveau, a window at a time,
+     * then remove the deleted ones from the internal database in one batch. Datasets that could not be deleted from
+     * piveau keep their rows, so a later unregister can find them, and fail the deletion.
+     */
+    private void deleteDatasets(java.util.List<String> catalogueDatasetIds, java.util.List<JsonObject> offeredDatasets, String cataloguePiveauId, Handler<AsyncResult<Void>> next) {
+        Set<String> datasetPiveauIds = new LinkedHashSet<>(catalogueDatasetIds);
+        for (JsonObject dataset : offeredDatasets) {
+            datasetPiveauIds.add(dataset.getString("internal_id"));
+        }
+        java.util.List<String> ids = new ArrayList<>(datasetPiveauIds);
+        fanOut.<String, Boolean>all(ids, (id, datasetDeleted) -> deleteDatasetPiveau(id, cataloguePiveauId,
+                reply -> datasetDeleted.handle(Future.succeededFuture(reply.succeeded()))), reply -> {
+            java.util.List<String> deletedIds = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i++) {
+                if (reply.result().get(i)) {
+                    deletedIds.add(ids.get(i));
+                }
             }
-        });
-    }
-
-    private void deleteDatasetInternal(AsyncResult<Void> reply, String datasetPiveauId, String datasetIDSId, java.util.Map<String, Promise> datasetDeletePromises) {
-        if (reply.succeeded()) {
-            datasetManager.deleteByInternalId(datasetPiveauId, internalDatasetDeleteResult -> {
-                if (reply.succeeded()) {
-                    datasetDeletePromises.get(datasetIDSId).complete();
+            datasetManager.deleteAllByInternalIds(deletedIds, internalDeleteReply -> {
+                if (internalDeleteReply.failed()) {
+                    next.handle(internalDeleteReply);
+                } else if (deletedIds.size() < ids.size()) {
+                    next.handle(Future.failedFuture((ids.size() - deletedIds.size()) + " of " + ids.size() + " datasets could not be deleted from piveau."));
                 } else {
-                    datasetDeletePromises.get(datasetIDSId).fail(reply.cause());
-                    LOGGER.error(reply.cause());
+                    LOGGER.info("DataAssets From Database successfully deleted");
+                    next.handle(internalDeleteReply);
                 }
             });
+        });
+    }
+
+    private void handleCatalogue(URI uri, AsyncResult<Void> datasetDeleteReply, String catalogueIdResult, Handler<AsyncResult<MultipartResponse>> readyHandler) {
+        if (datasetDeleteReply.succeeded()) {
+            deleteCatalogueExternal(datasetDeleteReply, catalogueIdResult, externalCatalogueDeleteReply ->
+                    deleteCatalogueInternal(uri, externalCatalogueDeleteReply, catalogueIdResult, readyHandler));
         } else {
-            datasetDeletePromises.get(datasetPiveauId).fail(reply.cause());
+            LOGGER.error(datasetDeleteReply.cause());
+            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
         }
     }
 
-    private void deleteCatalogueExternal(AsyncResult<CompositeFuture> reply, String catalogueInternalId, Handler<AsyncResult> next) {
+    private void deleteCatalogueExternal(AsyncResult<Void> reply, String catalogueInternalId, Handler<AsyncResult> next) {
         if (reply.succeeded()) {
             piveauMessageService.deleteCatalogue(catalogueInternalId, deleteCatalogueReply -> {
                 if (deleteCatalogueReply.succeeded()) {
@@ -194,7 +190,7 @@ public class UnregisterController {
         }
     }
 
-    private void deleteCatalogueInternal(URI uri, AsyncResult<Void> reply, String catalogueInternalId, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    private void deleteCatalogueInternal(URI uri, AsyncResult<Void> reply, String catalogueInternalId, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         if (reply.succeeded()) {
             catalogueManager.deleteByInternalId(catalogueInternalId, deleteCatalogueReply -> {
                 if (deleteCatalogueReply.succeeded()) {
@@ -220,38 +216,4 @@ public class UnregisterController {
             }
         });
     }
-
-    private void handleDataSetFuture(AsyncResult<Void> reply, String idsId, java.util.Map<String, Promise> datasetdeletePromises) {
-        if (reply.succeeded()) {
-            datasetdeletePromises.get(idsId).complete();
-            LOGGER.info("DataAsset From Database successfully deleted");
-        } else {
-            LOGGER.error(reply.cause());
-            datasetdeletePromises.get(idsId).fail(reply.cause());
-        }
-    }
-
-    private void resolvePiveauIds(AsyncResult<java.util.List<String>> piveauDatasetIds, Handler<AsyncResult<java.util.Map<String, String>>> completer) {
-        java.util.Map<String, Promise<JsonObject>> piveau2IDSResolvePromiseMap = new HashMap<>();
-        if (piveauDatasetIds.succeeded()) {
-            for (String piveauId : piveauDatasetIds.result()) {
-                Promise<JsonObject> idsResolve = Promise.promise();
-                piveau2IDSResolvePromiseMap.put(piveauId, idsResolve);
-                datasetManager.findByInternalId(piveauId, idsResolve);
-            }
-            CompositeFuture.all(piveau2IDSResolvePromiseMap.values().stream().map(Promise::future).collect(Collectors.toList())).setHandler(ac -> {
-                if (ac.succeeded()) {
-                    java.util.Map<String, String> resultMap = new HashMap<>();
-                    for (String piveauId : piveau2IDSResolvePromiseMap.keySet()) {
-                        resultMap.put(piveau2IDSResolvePromiseMap.get(piveauId).future().result().getString("external_id"), piveauId);
-                    }
-                    completer.handle(Future.succeededFuture(resultMap));
-                } else {
-                    completer.handle(Future.failedFuture(ac.cause()));
-                }
-            });
-        } else {
-            completer.handle(Future.failedFuture(piveauDatasetIds.cause()));
-        }
-    }
 }
@@ -5,20 +5,20 @@ import de.fraunhofer.fokus.ids.manager.DatasetManager;
 import de.fraunhofer.fokus.ids.manager.GraphManager;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageService;
-import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformerService;
-import de.fraunhofer.fokus.ids.utils.TSConnector;
+import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformer;
+import de.fraunhofer.fokus.ids.utils.ContentHash;
+import de.fraunhofer.fokus.ids.utils.FanOut;
+import de.fraunhofer.fokus.ids.utils.MultipartResponse;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
 import io.vertx.core.*;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import org.apache.http.HttpEntity;
 
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -31,85 +31,65 @@ public class UpdateController {
     private DatasetManager datasetManager;
     private IDSService idsService;
     private PiveauMessageService piveauMessageService;
-    private DCATTransformerService dcatTransformerService;
+    private DCATTransformer dcatTransformer;
+    private FanOut fanOut;
     private Serializer serializer = new Serializer();
 
-    public UpdateController(Vertx vertx, GraphManager graphManager, TSConnector tsConnector){
+    public UpdateController(Vertx vertx, GraphManager graphManager, IDSService idsService, FanOut fanOut, DCATTransformer dcatTransformer){
         this.graphManager = graphManager;
+        this.fanOut = fanOut;
         this.catalogueManager = new CatalogueManager(vertx);
         this.datasetManager = new DatasetManager(vertx);
-        this.idsService = new IDSService(vertx,tsConnector);
+        this.idsService = idsService;
         this.piveauMessageService = PiveauMessageService.createProxy(vertx, PiveauMessageService.ADDRESS);
-        this.dcatTransformerService = DCATTransformerService.createProxy(vertx, DCATTransformerService.ADDRESS);
+        this.dcatTransformer = dcatTransformer;
     }
-    public void updateSingleDataset(URI uri, String issuerConnector, Resource resource, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    /**
+     * The content hash of the resource is compared with the stored one first, so an unchanged dataset is skipped
+     * entirely and only changed or new datasets are transformed and written.
+     */
+    public void updateSingleDataset(URI uri, String issuerConnector, Resource resource, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         catalogueManager.getCatalogueByExternalId(issuerConnector, next -> {
             if (next.succeeded()) {
                 String cataloguePiveauId = next.result().getString("internal_id");
                 LOGGER.info("Katalog with id " + issuerConnector + " found ");
 
                 if (resource != null) {
-                    datasetManager.dataAssetIdsOfCatalogue(cataloguePiveauId, piveauDatasetIds -> {
-                        if (piveauDatasetIds.succeeded()) {
-                            try {
-                                dcatTransformerService.transformDataset(serializer.serialize(resource), ((StaticEndpoint) resource.getResourceEndpoint().get(0)).getEndpointArtifact().getCreationDate().toString(), datasetTransformResult -> {
-                                    if (datasetTransformResult.succeeded()) {
-                                        if (!piveauDatasetIds.result().isEmpty()) {
-                                            datasetManager.findByExternalId(resource.getId().toString(), datasetIdreply -> {
-                                                if (datasetIdreply.succeeded()) {
-                                                    String datasePiveautId = datasetIdreply.result().getString("internal_id");
-                                                    if (piveauDatasetIds.result().contains(datasePiveautId)) {
-                                                        graphManager.delete(resource.getId().toString(), r -> {
-                                                            if (r.failed()) {
-                                                                LOGGER.info("Deletion of dataset graph failed.");
-                                                            }
-                                                        });
-                                                        datasetGraphCreation(resource,readyHandler);
-                                                        resolveDatasetIdForUpdate(resource.getId().toString(), reply -> {
-                                                            piveauMessageService.createDataSet(datasetTransformResult.result(), reply.result(), cataloguePiveauId, datasetReply -> {
-                                                                if (datasetReply.succeeded()) {
-                                                                    idsService.handleSucceededMessage(uri, readyHandler);
-                                                                } else {
-                                                                    LOGGER.error(datasetReply.cause());
-                                                                    idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
-                                                                }
-                                                            });
-                                                        });
-                                                    } else {
-                                                        idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
+                    String serializedResource;
+                    try {
+                        serializedResource = serializer.serialize(resource);
+                    } catch (IOException e) {
+                        readyHandler.handle(Future.failedFuture(e));
+                        return;
+                    }
+                    String contentHash = ContentHash.of(serializedResource);
+                    datasetManager.findByExternalId(resource.getId().toString(), datasetIdreply -> {
+                        if (datasetIdreply.succeeded()) {
+                            String datasePiveautId = datasetIdreply.result().getString("internal_id");
+                            if (contentHash.equals(datasetIdreply.result().getString("content_hash"))) {
+                                LOGGER.info("Dataset " + resource.getId().toString() + " did not change.");
+                                idsService.handleSucceededMessage(uri, readyHandler);
+                            } else if (cataloguePiveauId.equals(datasetIdreply.result().getString("catalogue_id"))) {
+                                transformDataset(resource, uri, readyHandler, dataset ->
+                                    datasetGraphCreation(resource, serializedResource, uri, readyHandler, graphCreated ->
+                                        piveauMessageService.createDataSet(dataset, datasePiveautId, cataloguePiveauId, datasetReply -> {
+                                            if (datasetReply.succeeded()) {
+                                                datasetManager.updateContentHashes(Collections.singletonMap(resource.getId().toString(), contentHash), hashReply -> {
+                                                    if (hashReply.failed()) {
+                                                        LOGGER.error(hashReply.cause());
                                                     }
-                                                } else {
-                                                    LOGGER.info("Dataset with id " + resource.getId().toString() + " not found ");
-                                                    idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
-                                                }
-                                            });
-                                        } else {
-                                            String internalId = UUID.randomUUID().toString();
-                                            datasetGraphCreation(resource,readyHandler);
-                                            piveauMessageService.createDataSet(datasetTransformResult.result(), internalId, cataloguePiveauId, datasetReply -> {
-                                                if (datasetReply.succeeded()) {
-                                                    datasetManager.create(resource.getId().toString(), internalId, datasetPersistenceReply2 -> {
-                                                        if (datasetPersistenceReply2.succeeded()) {
-                                                            idsService.handleSucceededMessage(uri, readyHandler);
-                                                        } else {
-                                                            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                                                        }
-                                                    });
-                                                } else {
-                                                    LOGGER.error(datasetReply.cause());
-                                                }
-                                            });
-                                        }
-                                    } else {
-                                        LOGGER.error(datasetTransformResult.cause());
-                                        idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                                    }
-                                });
-                            } catch (IOException e) {
-                                readyHandler.handle(Future.failedFuture(e));
+                                                    idsService.handleSucceededMessage(uri, readyHandler);
+                                                });
+                                            } else {
+                                                LOGGER.error(datasetReply.cause());
+                                                idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
+                                            }
+                                        })));
+                            } else {
+                                idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
                             }
                         } else {
-                            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                            createSingleDataset(uri, cataloguePiveauId, resource, serializedResource, contentHash, readyHandler);
                         }
                     });
                 }
@@ -120,24 +100,65 @@ public class UpdateController {
         });
     }
 
-    public void update(URI uri, Connector connector, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    /**
+     * A dataset not known yet is only created if its catalogue has no datasets yet.
+     */
+    private void createSingleDataset(URI uri, String cataloguePiveauId, Resource resource, String serializedResource, String contentHash, Handler<AsyncResult<MultipartResponse>> readyHandler) {
+        datasetManager.dataAssetIdsOfCatalogue(cataloguePiveauId, piveauDatasetIds -> {
+            if (piveauDatasetIds.failed()) {
+                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+            } else if (!piveauDatasetIds.result().isEmpty()) {
+                LOGGER.info("Dataset with id " + resource.getId().toString() + " not found ");
+                idsService.handleRejectionMessage(RejectionReason.BAD_PARAMETERS, uri, readyHandler);
+            } else {
+                String internalId = UUID.randomUUID().toString();
+                transformDataset(resource, uri, readyHandler, dataset ->
+                    datasetGraphCreation(resource, serializedResource, uri, readyHandler, graphCreated ->
+                        piveauMessageService.createDataSet(dataset, internalId, cataloguePiveauId, datasetReply -> {
+                            if (datasetReply.succeeded()) {
+                                datasetManager.create(resource.getId().toString(), internalId, cataloguePiveauId, contentHash, datasetPersistenceReply2 -> {
+                                    if (datasetPersistenceReply2.succeeded()) {
+                                        idsService.handleSucceededMessage(uri, readyHandler);
+                                    } else {
+                                        idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                                    }
+                                });
+                            } else {
+                                LOGGER.error(datasetReply.cause());
+                                graphManager.delete(resource.getId().toString(), deleteReply -> {});
+                                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                            }
+                        })));
+            }
+        });
+    }
+
+    /**
+     * Transform the resource to DCAT and continue with the dataset, or reject the message if it could not be
+     * transformed.
+     */
+    private void transformDataset(Resource resource, URI uri, Handler<AsyncResult<MultipartResponse>> readyHandler, Handler<String> next) {
+        dcatTransformer.transformDataset(resource, ((StaticEndpoint) resource.getResourceEndpoint().get(0)).getEndpointArtifact().getCreationDate().toString(), datasetTransformResult -> {
+            if (datasetTransformResult.succeeded()) {
+                next.handle(datasetTransformResult.result());
+            } else {
+                LOGGER.error(datasetTransformResult.cause());
+                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+            }
+        });
+    }
+
+    public void update(URI uri, Connector connector, Handler<AsyncResult<MultipartResponse>> readyHandler) {
 
         catalogueManager.getCatalogueByExternalId(connector.getId().toString(), catalogueIdResult -> {
             if (catalogueIdResult.succeeded()) {
                 try {
                     graphManager.update(connector.getId().toString(),serializer.serialize(connector),next1->
-                    {
-                        try {
-                            dcatTransformerService.transformCatalogue(serializer.serialize(connector), null, catalogueTransformationResult -> {
+                            dcatTransformer.transformCatalogue(connector, null, catalogueTransformationResult -> {
                                 createCatalogueInPiveau(catalogueTransformationResult, catalogueIdResult.result().getString("internal_id"), next2 -> {
                                     updateDatasets(connector,uri, catalogueIdResult.result().getString("internal_id"), readyHandler);
                                 });
-                        });
-                        } catch (IOException e) {
-                            LOGGER.error(e);
-                            readyHandler.handle(Future.failedFuture(e));
-                        }
-                    });
+                            }));
                 } catch (IOException e) {
                     LOGGER.error(e);
                     readyHandler.handle(Future.failedFuture(e));
@@ -163,182 +184,226 @@ public class UpdateController {
             next.handle(Future.failedFuture(catalogue.cause()));
         }
     }
-    private void datasetGraphCreation(Resource resource,  Handler<AsyncResult<HttpEntity>> readyHandler){
-        try {
-            graphManager.create(resource.getId().toString(),serializer.serialize(resource),r->{
-                if(r.failed()){
-                    LOGGER.info("Creation of dataset graph failed.");
-                }
-            });
-        } catch (IOException e) {
-            LOGGER.error(e);
-            readyHandler.handle(Future.failedFuture(e));
-        }
+    /**
+     * Write the graph of the dataset and continue only once it was written, so a content hash stored afterwards always
+     * describes the stored graph. The message is rejected if the graph could not be written.
+     */
+    private void datasetGraphCreation(Resource resource, String serializedResource, URI uri, Handler<AsyncResult<MultipartResponse>> readyHandler, Handler<Void> next){
+        graphManager.create(resource.getId().toString(), serializedResource, r->{
+            if (r.succeeded()) {
+                next.handle(null);
+            } else {
+                LOGGER.error("Creation of dataset graph failed.", r.cause());
+                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+            }
+        });
     }
-    private void updateDatasets(Connector connector, URI uri, String catalogueId, Handler<AsyncResult<HttpEntity>> readyHandler) {
-        datasetManager.dataAssetIdsOfCatalogue(catalogueId, piveauDatasetIds ->
-                resolvePiveauIds(piveauDatasetIds, result -> {
+    /**
+     * Apply the difference between the offered and the known datasets, a window of datasets at a time. Datasets whose
+     * content hash did not change are skipped. The graphs of added and changed datasets are written in one batch and
+     * the datasets to piveau, removed ones are deleted from both. A content hash is only stored for datasets whose
+     * graph and piveau dataset were both written, so the others are written again with the next update; the update
+     * fails if any dataset failed.
+     */
+    private void updateDatasets(Connector connector, URI uri, String catalogueId, Handler<AsyncResult<MultipartResponse>> readyHandler) {
+        datasetManager.datasetsOfCatalogue(catalogueId, result -> {
             if (result.succeeded()) {
-                java.util.Map<String, Promise> datasetUpdatePromises = new HashMap<>();
-                Set<String> availableDatasetIds = new HashSet(result.result().keySet());
-
-                for (String id :availableDatasetIds) {
-                    graphManager.delete(id, r -> {
-                        if(r.failed()){
-                            LOGGER.info("Deletion of dataset graph failed.");
-                        }
-                    });
+                java.util.Map<String, String> availableDatasets = new HashMap<>();
+                java.util.Map<String, String> storedHashes = new HashMap<>();
+                for (JsonObject row : result.result()) {
+                    availableDatasets.put(row.getString("external_id"), row.getString("internal_id"));
+                    storedHashes.put(row.getString("external_id"), row.getString("content_hash"));
                 }
-                Set<String> messageDatasetIds = connector.getCatalog().getOffer().stream().map(r -> r.getId().toString()).collect(Collectors.toSet());
-                Map<String, Resource> id2ResourceMap = new HashMap<>();
 
-                for(String id : messageDatasetIds){
-                    Resource dataset = connector.getCatalog().getOffer().stream().filter(r -> r.getId().toString().equals(id)).collect(Collectors.toList()).get(0);
-                    id2ResourceMap.put(id, dataset);
-                    datasetGraphCreation(dataset,readyHandler);
-                    availableDatasetIds.add(id);
+                Map<String, Resource> id2ResourceMap = new LinkedHashMap<>();
+                for (Resource dataset : connector.getCatalog().getOffer()) {
+                    id2ResourceMap.putIfAbsent(dataset.getId().toString(), dataset);
                 }
-                for (String datasetId : availableDatasetIds) {
-                    datasetUpdatePromises.put(datasetId, Promise.promise());
+
+                List<Resource> modifiedDatasets = new ArrayList<>();
+                java.util.Map<String, String> serializedDatasets = new HashMap<>();
+                java.util.Map<String, String> contentHashes = new HashMap<>();
+                for (Resource dataset : id2ResourceMap.values()) {
+                    String messageId = dataset.getId().toString();
+                    try {
+                        String serializedDataset = serializer.serialize(dataset);
+                        String contentHash = ContentHash.of(serializedDataset);
+                        if (!contentHash.equals(storedHashes.get(messageId))) {
+                            modifiedDatasets.add(dataset);
+                            serializedDatasets.put(messageId, serializedDataset);
+                            contentHashes.put(messageId, contentHash);
+                        }
+                    } catch (IOException e) {
+                        LOGGER.error(e);
+                        idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                        return;
+                    }
                 }
+                List<String> removedDatasets = availableDatasets.keySet().stream()
+                        .filter(id -> !id2ResourceMap.containsKey(id))
+                        .collect(Collectors.toList());
+                LOGGER.info("Catalogue " + catalogueId + ": " + modifiedDatasets.size() + " datasets added or changed, " + removedDatasets.size()
+                        + " removed, " + (id2ResourceMap.size() - modifiedDatasets.size()) + " unchanged.");
 
-                Collection<String> piveauIds = result.result().keySet();
-                if (piveauIds.isEmpty() && messageDatasetIds.isEmpty()) {
+                if (modifiedDatasets.isEmpty() && removedDatasets.isEmpty()) {
                     idsService.handleSucceededMessage(uri, readyHandler);
-                } else {
-                    for (String messageId : messageDatasetIds) {
-                        Resource dataset = id2ResourceMap.get(messageId);
-                        try {
-                            dcatTransformerService.transformDataset(serializer.serialize(dataset), ((StaticEndpoint)dataset.getResourceEndpoint().get(0)).getEndpointArtifact().getCreationDate().toString(), datasetTransformResult -> {
-                                if(datasetTransformResult.succeeded()) {
-                                    if (piveauIds.contains(messageId)) {
-                                        updateDataset(datasetTransformResult.result(), messageId, catalogueId, datasetUpdatePromises);
-                                    } else {
-                                        String internalId = UUID.randomUUID().toString();
-                                        createDataSet(datasetTransformResult.result(), messageId, internalId, catalogueId, datasetUpdatePromises);
-                                    }
-                                    piveauIds.remove(messageId);
-                                } else {
-                                    LOGGER.error(datasetTransformResult.cause());
-                                    idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                                }
-                            });
-                        } catch (IOException e) {
-                            LOGGER.error(e);
-                            readyHandler.handle(Future.failedFuture(e));
-                        }
+                    return;
+                }
+                fanOut.<String, Void>all(removedDatasets, (id, next) -> graphManager.delete(id, r -> {
+                    if(r.failed()){
+                        LOGGER.info("Deletion of dataset graph failed.");
+                    }
+                    next.handle(Future.succeededFuture());
+                }), graphDeleteReply -> graphManager.createAll(serializedDatasets, graphReply -> {
+                    if (graphReply.failed()) {
+                        LOGGER.error("Creation of dataset graphs failed, their content hashes are not stored.", graphReply.cause());
                     }
-                    CompositeFuture.all(messageDatasetIds.stream().map(datasetUpdatePromises::get).map(Promise::future).collect(Collectors.toList())).setHandler(mesFutures -> {
-                        if(mesFutures.succeeded()) {
-                            for (String orphan : piveauIds) {
-                                deleteDatasetPiveau(result.result().get(orphan), catalogueId, res -> datasetManager.deleteByExternalId(orphan, deleteResult -> handleDataSetPromise(deleteResult, orphan, datasetUpdatePromises)));
+                    fanOut.<Resource, String>all(modifiedDatasets, (dataset, next) -> {
+                        Promise<String> datasetPromise = Promise.promise();
+                        datasetPromise.future().setHandler(ar -> next.handle(Future.succeededFuture(ar.succeeded() ? ar.result() : null)));
+                        replaceDataset(dataset, availableDatasets, catalogueId, datasetPromise);
+                    }, mesFutures -> {
+                        java.util.Map<String, String> createdDatasets = new HashMap<>();
+                        java.util.Map<String, String> writtenHashes = new HashMap<>();
+                        java.util.Map<String, String> changedHashes = new HashMap<>();
+                        List<String> failedDatasets = new ArrayList<>();
+                        for (int i = 0; i < modifiedDatasets.size(); i++) {
+                            String messageId = modifiedDatasets.get(i).getId().toString();
+                            String piveauId = mesFutures.result().get(i);
+                            if (piveauId == null) {
+                                failedDatasets.add(messageId);
+                                if (!availableDatasets.containsKey(messageId)) {
+                                    graphManager.delete(messageId, reply -> {
+                                        if (reply.failed()) {
+                                            LOGGER.error("Graph of dataset " + messageId + " could not be removed.", reply.cause());
+                                        }
+                                    });
+                                }
+                                continue;
+                            }
+                            if (!availableDatasets.containsKey(messageId)) {
+                                createdDatasets.put(messageId, piveauId);
+                            }
+                            if (graphReply.succeeded()) {
+                                writtenHashes.put(messageId, contentHashes.get(messageId));
+                                if (availableDatasets.containsKey(messageId)) {
+                                    changedHashes.put(messageId, contentHashes.get(messageId));
+                                }
+                            } else {
+                                failedDatasets.add(messageId);
                             }
-                        } else {
-                            LOGGER.error(mesFutures.cause());
-                            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
-                        }
-                    });
-                    CompositeFuture.all(datasetUpdatePromises.values().stream().map(Promise::future).collect(Collectors.toList())).setHandler(ac -> {
-                        if (ac.succeeded()) {
-                            idsService.handleSucceededMessage(uri, readyHandler);
-                        } else {
-                            idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
                         }
+                        List<String> orphans = removedDatasets.stream()
+                                .map(availableDatasets::get)
+                                .collect(Collectors.toList());
+                        persistDatasetChanges(createdDatasets, writtenHashes, changedHashes, orphans, catalogueId, persistenceReply -> {
+                            if (persistenceReply.succeeded() && failedDatasets.isEmpty()) {
+                                idsService.handleSucceededMessage(uri, readyHandler);
+                            } else {
+                                if (persistenceReply.failed()) {
+                                    LOGGER.error(persistenceReply.cause());
+                                } else {
+                                    LOGGER.error(failedDatasets.size() + " of " + modifiedDatasets.size() + " datasets could not be updated: " + failedDatasets);
+                                }
+                                idsService.handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR, uri, readyHandler);
+                            }
+                        });
                     });
-                }
+                }));
             } else {
                 idsService.handleRejectionMessage(RejectionReason.NOT_FOUND, uri, readyHandler);
             }
-        }));
+        });
 
     }
 
-    private void createDataSet(String transformedDataset, String datasetExternalId, String dataSetId, String catalogueId, java.util.Map<String, Promise> datasetUpdatePromises) {
-        piveauMessageService.createDataSet(transformedDataset, dataSetId, catalogueId, datasetReply -> {
-            if (datasetReply.succeeded()) {
-                datasetManager.create(datasetExternalId, dataSetId, datasetPersistenceReply2 -> {
-                    if (datasetPersistenceReply2.succeeded()) {
-                        datasetUpdatePromises.get(datasetExternalId).complete();
-                    } else {
-                        datasetUpdatePromises.get(datasetExternalId).fail(datasetPersistenceReply2.cause());
-                    }
-                });
+    /**
+     * Transform the dataset and create or update it in piveau.
+     */
+    private void replaceDataset(Resource dataset, java.util.Map<String, String> availableDatasets, String catalogueId, Promise<String> datasetPromise) {
+        String messageId = dataset.getId().toString();
+        dcatTransformer.transformDataset(dataset, ((StaticEndpoint)dataset.getResourceEndpoint().get(0)).getEndpointArtifact().getCreationDate().toString(), datasetTransformResult -> {
+            if(datasetTransformResult.succeeded()) {
+                if (availableDatasets.containsKey(messageId)) {
+                    updateDataset(datasetTransformResult.result(), availableDatasets.get(messageId), catalogueId, datasetPromise);
+                } else {
+                    String internalId = UUID.randomUUID().toString();
+                    createDataSet(datasetTransformResult.result(), internalId, catalogueId, datasetPromise);
+                }
             } else {
-                LOGGER.error(datasetReply.cause());
+                LOGGER.error(datasetTransformResult.cause());
+                datasetPromise.fail(datasetTransformResult.cause());
             }
         });
     }
 
-    private void updateDataset(String datasetTTL, String messageId, String catalogueId, java.util.Map<String, Promise> datasetUpdatePromises) {
-        resolveDatasetIdForUpdate(messageId, reply -> {
-            piveauMessageService.createDataSet(datasetTTL, reply.result(), catalogueId, datasetReply -> {
-                if (datasetReply.succeeded()) {
-                    datasetUpdatePromises.get(messageId).complete();
-                } else {
-                    LOGGER.error(datasetReply.cause());
-                    datasetUpdatePromises.get(messageId).fail(datasetReply.cause());
+    /**
+     * Store the newly created datasets and the content hashes of the changed ones, and remove the orphaned ones from
+     * piveau and the internal database, each in a single batch. Created datasets without an entry in contentHashes are
+     * stored without hash. Orphans that could not be deleted from piveau are kept in the internal database and fail the
+     * update.
+     */
+    private void persistDatasetChanges(java.util.Map<String, String> createdDatasets, java.util.Map<String, String> contentHashes, java.util.Map<String, String> changedHashes,
+                                       List<String> orphanPiveauIds, String catalogueId, Handler<AsyncResult<Void>> next) {
+        fanOut.<String, Boolean>all(orphanPiveauIds, (orphan, orphanDeleted) ->
+                deleteDatasetPiveau(orphan, catalogueId, reply -> orphanDeleted.handle(Future.succeededFuture(reply.succeeded()))), piveauDeleteReply -> {
+            List<String> deletedOrphans = new ArrayList<>();
+            for (int i = 0; i < orphanPiveauIds.size(); i++) {
+                if (piveauDeleteReply.result().get(i)) {
+                    deletedOrphans.add(orphanPiveauIds.get(i));
+                }
+            }
+            datasetManager.createAll(catalogueId, createdDatasets, contentHashes, createReply -> {
+                if (createReply.failed()) {
+                    next.handle(Future.failedFuture(createReply.cause()));
+                    return;
                 }
+                datasetManager.updateContentHashes(changedHashes, hashReply -> {
+                    if (hashReply.failed()) {
+                        next.handle(Future.failedFuture(hashReply.cause()));
+                        return;
+                    }
+                    datasetManager.deleteAllByInternalIds(deletedOrphans, deleteReply -> {
+                        if (deleteReply.succeeded() && deletedOrphans.size() < orphanPiveauIds.size()) {
+                            next.handle(Future.failedFuture((orphanPiveauIds.size() - deletedOrphans.size()) + " orphaned datasets could not be deleted from piveau."));
+                        } else {
+                            next.handle(deleteReply);
+                        }
+                    });
+                });
             });
         });
     }
-    private void deleteDatasetPiveau(String datasetId, String catalogueId, Handler<AsyncResult<Void>> next) {
-        piveauMessageService.deleteDataSet(datasetId, catalogueId, deleteAsset -> {
-            if (deleteAsset.succeeded()) {
-                next.handle(Future.succeededFuture());
+
+    private void createDataSet(String transformedDataset, String dataSetId, String catalogueId, Promise<String> datasetPromise) {
+        piveauMessageService.createDataSet(transformedDataset, dataSetId, catalogueId, datasetReply -> {
+            if (datasetReply.succeeded()) {
+                datasetPromise.complete(dataSetId);
             } else {
-                LOGGER.error(deleteAsset.cause());
-                next.handle(Future.failedFuture(deleteAsset.cause()));
+                LOGGER.error(datasetReply.cause());
+                datasetPromise.fail(datasetReply.cause());
             }
         });
     }
 
-    private void handleDataSetPromise(AsyncResult<Void> reply, String idsId, java.util.Map<String, Promise> datasetdeletePromises) {
-        if (reply.succeeded()) {
-            datasetdeletePromises.get(idsId).complete();
-            LOGGER.info("DataAsset From Database successfully deleted");
-        } else {
-            LOGGER.error(reply.cause());
-            datasetdeletePromises.get(idsId).fail(reply.cause());
-        }
-    }
-
-    private void resolvePiveauIds(AsyncResult<java.util.List<String>> piveauDatasetIds, Handler<AsyncResult<java.util.Map<String, String>>> completer) {
-        java.util.Map<String, Promise<JsonObject>> piveau2IDSResolvePromiseMap = new HashMap<>();
-        if (piveauDatasetIds.succeeded()) {
-            for (String piveauId : piveauDatasetIds.result()) {
-                Promise<JsonObject> idsResolve = Promise.promise();
-                piveau2IDSResolvePromiseMap.put(piveauId, idsResolve);
-                datasetManager.findByInternalId(piveauId, idsResolve);
+    private void updateDataset(String datasetTTL, String datasetPiveauId, String catalogueId, Promise<String> datasetPromise) {
+        piveauMessageService.createDataSet(datasetTTL, datasetPiveauId, catalogueId, datasetReply -> {
+            if (datasetReply.succeeded()) {
+                datasetPromise.complete(datasetPiveauId);
+            } else {
+                LOGGER.error(datasetReply.cause());
+                datasetPromise.fail(datasetReply.cause());
             }
-            CompositeFuture.all(piveau2IDSResolvePromiseMap.values().stream().map(Promise::future).collect(Collectors.toList())).setHandler(ac -> {
-                if (ac.succeeded()) {
-                    java.util.Map<String, String> resultMap = new HashMap<>();
-                    for (String piveauId : piveau2IDSResolvePromiseMap.keySet()) {
-                        resultMap.put(piveau2IDSResolvePromiseMap.get(piveauId).future().result().getString("external_id"), piveauId);
-                    }
-                    completer.handle(Future.succeededFuture(resultMap));
-                } else {
-                    completer.handle(Future.failedFuture(ac.cause()));
-                }
-            });
-        } else {
-            completer.handle(Future.failedFuture(piveauDatasetIds.cause()));
-        }
+        });
     }
 
-    private void resolveDatasetIdForUpdate(String dataassetIdExternal, Handler<AsyncResult<String>> next) {
-        datasetManager.findByExternalId(dataassetIdExternal, datasetPersistenceReply -> {
-            if (datasetPersistenceReply.succeeded()) {
-                if (!datasetPersistenceReply.result().isEmpty()) {
-                    String id = datasetPersistenceReply.result().getString("internal_id");
-                    next.handle(Future.succeededFuture(id));
-                } else {
-                    String datId = UUID.randomUUID().toString();
-                    next.handle(Future.succeededFuture(datId));
-                }
+    private void deleteDatasetPiveau(String datasetId, String catalogueId, Handler<AsyncResult<Void>> next) {
+        piveauMessageService.deleteDataSet(datasetId, catalogueId, deleteAsset -> {
+            if (deleteAsset.succeeded()) {
+                next.handle(Future.succeededFuture());
             } else {
-                LOGGER.error(datasetPersistenceReply.cause());
-                next.handle(Future.failedFuture(datasetPersistenceReply.cause()));
+                LOGGER.error(deleteAsset.cause());
+                next.handle(Future.failedFuture(deleteAsset.cause()));
             }
         });
     }
@@ -1,15 +1,29 @@
 package de.fraunhofer.fokus.ids.main;
 
 import de.fraunhofer.fokus.ids.controller.*;
+import de.fraunhofer.fokus.ids.manager.DatasetManager;
 import de.fraunhofer.fokus.ids.manager.GraphManager;
 import de.fraunhofer.fokus.ids.services.IDSService;
 import de.fraunhofer.fokus.ids.services.authService.AuthAdapterServiceVerticle;
+import de.fraunhofer.fokus.ids.services.authService.TokenCache;
+import de.fraunhofer.fokus.ids.services.authService.TokenVerifier;
 import de.fraunhofer.fokus.ids.services.piveauMessageService.PiveauMessageServiceVerticle;
+import de.fraunhofer.fokus.ids.services.databaseService.DatabaseService;
 import de.fraunhofer.fokus.ids.services.databaseService.DatabaseServiceVerticle;
+import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformer;
 import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformerServiceVerticle;
+import de.fraunhofer.fokus.ids.utils.BrokerConfiguration;
+import de.fraunhofer.fokus.ids.utils.EmbeddedTripleStore;
+import de.fraunhofer.fokus.ids.utils.FanOut;
+import de.fraunhofer.fokus.ids.utils.HttpClientPool;
 import de.fraunhofer.fokus.ids.utils.IDSMessageParser;
 import de.fraunhofer.fokus.ids.utils.InitService;
+import de.fraunhofer.fokus.ids.utils.JsonLdContextResolver;
+import de.fraunhofer.fokus.ids.utils.MultipartResponse;
+import de.fraunhofer.fokus.ids.utils.QueryGate;
+import de.fraunhofer.fokus.ids.utils.QueryResultCache;
 import de.fraunhofer.fokus.ids.utils.TSConnector;
+import de.fraunhofer.fokus.ids.utils.TripleStore;
 import de.fraunhofer.fokus.ids.utils.models.IDSMessage;
 import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
 import de.fraunhofer.iais.eis.*;
@@ -20,41 +34,44 @@ import io.vertx.config.ConfigRetriever;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.*;
-import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CorsHandler;
-import org.apache.commons.io.IOUtils;
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 
 public class MainVerticle extends AbstractVerticle {
     private Logger LOGGER = LoggerFactory.getLogger(MainVerticle.class.getName());
     private Router router;
     private QueryMessageController queryMessageController;
     private IDSService idsService;
-    private TSConnector tsConnector;
+    private TripleStore tripleStore;
     private RegisterController registerController;
     private UpdateController updateController;
     private UnregisterController unregisterController;
     private Serializer serializer;
     private int servicePort;
     private AuthAdapterService authAdapterService;
+    private TokenVerifier tokenVerifier;
+    private BrokerConfiguration brokerConfiguration;
+    private Map<String, Supplier<JsonObject>> metrics = new LinkedHashMap<>();
+    private DatabaseService databaseService;
 
     @Override
     public void start(Promise<Void> startPromise) {
@@ -68,21 +85,22 @@ public class MainVerticle extends AbstractVerticle {
 
                 DeploymentOptions deploymentOptions = new DeploymentOptions();
                 deploymentOptions.setWorker(true);
+                DeploymentOptions dcatTransformerOptions = workerDeployment(config.result(), "dcatTransformer", 1, Runtime.getRuntime().availableProcessors());
                 Future<String> deployment = Future.succeededFuture();
                 deployment.compose(id1 -> {
                     Promise<String> dcatTransformer = Promise.promise();
                     Future<String> dcatTransformerFuture = dcatTransformer.future();
-                    vertx.deployVerticle(DCATTransformerServiceVerticle.class.getName(), deploymentOptions, dcatTransformerFuture);
+                    vertx.deployVerticle(DCATTransformerServiceVerticle.class.getName(), dcatTransformerOptions, dcatTransformerFuture);
                     return dcatTransformerFuture;
                 }).compose(id2 -> {
                     Promise<String> brokerMessage = Promise.promise();
                     Future<String> brokerMessageFuture = brokerMessage.future();
-                    vertx.deployVerticle(PiveauMessageServiceVerticle.class.getName(), deploymentOptions, brokerMessageFuture);
+                    vertx.deployVerticle(PiveauMessageServiceVerticle.class.getName(), workerDeployment(config.result(), "piveau", 1, 1), brokerMessageFuture);
                     return brokerMessageFuture;
                 }).compose(id3 -> {
                     Promise<String> databaseMessage = Promise.promise();
                     Future<String> databaseMessageFuture = databaseMessage.future();
-                    vertx.deployVerticle(DatabaseServiceVerticle.class.getName(), deploymentOptions, databaseMessage);
+                    vertx.deployVerticle(DatabaseServiceVerticle.class.getName(), workerDeployment(config.result(), "database", 1, 1), databaseMessage);
                     return databaseMessageFuture;
                 }).compose(id4 -> {
                     Promise<String> authPromise= Promise.promise();
@@ -91,30 +109,51 @@ public class MainVerticle extends AbstractVerticle {
                     return authFuture;
                 }).setHandler(ar -> {
                     if (ar.succeeded()) {
-                        Future initFuture = Promise.promise().future();
-                        new InitService(vertx).initDatabase(initFuture);
-                        if (initFuture.succeeded()) {
+                        new InitService(vertx).initDatabase(initResult -> {
+                            if (initResult.succeeded()) {
 
-                            this.serializer = new Serializer();
-                            WebClient webClient = WebClient.create(vertx);
-                            CircuitBreaker breaker = CircuitBreaker.create("virtuoso-breaker", vertx, new CircuitBreakerOptions().setMaxRetries(5))
-                                    .retryPolicy(count -> count * 1000L);
-                            this.tsConnector = TSConnector.create(webClient, breaker, config.result().getJsonObject("VIRTUOSO_CONFIG"));
-                            this.queryMessageController = new QueryMessageController(tsConnector, vertx);
-                            GraphManager graphManager = new GraphManager(vertx, tsConnector);
-                            this.updateController = new UpdateController(vertx, graphManager,tsConnector);
-                            this.unregisterController = new UnregisterController(vertx, graphManager,tsConnector);
-                            this.registerController = new RegisterController(vertx,graphManager,tsConnector);
-                            this.servicePort = config.result().getInteger("SERVICE_PORT");
-                            this.idsService = new IDSService(vertx,tsConnector);
-                            this.authAdapterService = AuthAdapterService.createProxy(vertx, AuthAdapterServiceVerticle.ADDRESS);
+                                this.serializer = new Serializer();
+                                HttpClientPool httpClientPool = HttpClientPool.create(vertx, "default", config.result().getJsonObject("HTTP_CLIENT_CONFIG", new JsonObject()));
+                                WebClient webClient = httpClientPool.webClient();
+                                CircuitBreaker breaker = CircuitBreaker.create("virtuoso-breaker", vertx, new CircuitBreakerOptions().setMaxRetries(5))
+                                        .retryPolicy(count -> count * 1000L);
+                                this.tripleStore = createTripleStore(config.result(), breaker);
+                                this.brokerConfiguration = new BrokerConfiguration(config.result().getJsonObject("BROKER_CONFIG"));
+                                retriever.listen(change -> brokerConfiguration.update(change.getNewConfiguration().getJsonObject("BROKER_CONFIG")));
+                                this.authAdapterService = AuthAdapterService.createProxy(vertx, AuthAdapterServiceVerticle.ADDRESS);
+                                this.databaseService = DatabaseService.createProxy(vertx, DatabaseService.ADDRESS);
+                                TokenCache tokenCache = new TokenCache(vertx, authAdapterService, config.result().getJsonObject("TOKEN_CACHE_CONFIG", new JsonObject()));
+                                tokenCache.retrieveToken(tokenReply -> {});
+                                this.tokenVerifier = new TokenVerifier(vertx, authAdapterService, webClient, config.result().getJsonObject("TOKEN_VERIFICATION_CONFIG", new JsonObject()));
+                                this.idsService = new IDSService(vertx, tripleStore, brokerConfiguration, tokenCache);
+                                QueryResultCache queryResultCache = new QueryResultCache(config.result().getJsonObject("QUERY_CACHE_CONFIG", new JsonObject()));
+                                QueryGate queryGate = new QueryGate(vertx, config.result().getJsonObject("QUERY_GATE_CONFIG", new JsonObject()));
+                                this.queryMessageController = new QueryMessageController(tripleStore, idsService, queryResultCache, queryGate);
+                                JsonLdContextResolver jsonLdContextResolver = new JsonLdContextResolver(vertx, webClient, config.result().getJsonObject("JSONLD_CONTEXT_CONFIG", new JsonObject()));
+                                metrics.put("jsonLdContext", jsonLdContextResolver::metrics);
+                                metrics.put("tokenCache", tokenCache::metrics);
+                                metrics.put("tokenVerifier", tokenVerifier::metrics);
+                                metrics.put("queryResultCache", queryResultCache::metrics);
+                                metrics.put("queryGate", queryGate::metrics);
+                                metrics.put("httpClientPool.default", httpClientPool::metrics);
+                                GraphManager graphManager = new GraphManager(vertx, tripleStore, jsonLdContextResolver, queryResultCache);
+                                FanOut fanOut = new FanOut(config.result().getJsonObject("FAN_OUT_CONFIG", new JsonObject()));
+                                DCATTransformer dcatTransformer = new DCATTransformer(vertx.createSharedWorkerExecutor(
+                                        dcatTransformerOptions.getWorkerPoolName(), dcatTransformerOptions.getWorkerPoolSize()));
+                                this.updateController = new UpdateController(vertx, graphManager, idsService, fanOut, dcatTransformer);
+                                this.unregisterController = new UnregisterController(vertx, graphManager, idsService, fanOut);
+                                this.registerController = new RegisterController(vertx, graphManager, idsService, fanOut, dcatTransformer);
+                                this.servicePort = config.result().getInteger("SERVICE_PORT");
 
-                            router = Router.router(vertx);
-                            createHttpServer(vertx);
-                            startPromise.complete();
-                        } else {
-                            startPromise.fail(initFuture.cause());
-                        }
+                                router = Router.router(vertx);
+                                startCatalogueReconciliation(config.result().getJsonObject("PIVEAU_HUB_CONFIG", new JsonObject()), reconciled -> {
+                                    createHttpServer(vertx);
+                                    startPromise.complete();
+                                });
+                            } else {
+                                startPromise.fail(initResult.cause());
+                            }
+                        });
                     } else {
                         startPromise.fail(ar.cause());
                     }
@@ -129,6 +168,60 @@ public class MainVerticle extends AbstractVerticle {
 
     }
 
+    /**
+     * Worker deployment of a service verticle, configured by its key in DEPLOYMENT_CONFIG: instances: verticle
+     * instances handling requests in parallel, workerPoolName and workerPoolSize: dedicated worker pool shared by the
+     * instances, named after the key and with a thread per instance, but at least defaultWorkerPoolSize threads, by
+     * default. The database and piveau verticles open their own connection pool per instance. The pool of the
+     * dcatTransformer also runs the transformations of the local DCATTransformer.
+     */
+    private DeploymentOptions workerDeployment(JsonObject config, String key, int defaultInstances, int defaultWorkerPoolSize) {
+        JsonObject deploymentConfig = config.getJsonObject("DEPLOYMENT_CONFIG", new JsonObject()).getJsonObject(key, new JsonObject());
+        int instances = Math.max(1, deploymentConfig.getInteger("instances", defaultInstances));
+        return new DeploymentOptions()
+                .setWorker(true)
+                .setInstances(instances)
+                .setWorkerPoolName(deploymentConfig.getString("workerPoolName", key))
+                .setWorkerPoolSize(Math.max(1, deploymentConfig.getInteger("workerPoolSize", Math.max(instances, defaultWorkerPoolSize))));
+    }
+
+    /**
+     * Virtuoso, configured by VIRTUOSO_CONFIG with its connection pool configured by VIRTUOSO_CLIENT_CONFIG, unless
+     * TRIPLE_STORE_CONFIG selects the embedded TDB2 store with type "tdb2" and an optional location.
+     */
+    private TripleStore createTripleStore(JsonObject config, CircuitBreaker breaker) {
+        JsonObject tripleStoreConfig = config.getJsonObject("TRIPLE_STORE_CONFIG", new JsonObject());
+        if ("tdb2".equals(tripleStoreConfig.getString("type"))) {
+            return EmbeddedTripleStore.create(vertx, tripleStoreConfig);
+        }
+        HttpClientPool pool = HttpClientPool.create(vertx, "virtuoso", config.getJsonObject("VIRTUOSO_CLIENT_CONFIG", new JsonObject()));
+        metrics.put("httpClientPool.virtuoso", pool::metrics);
+        return TSConnector.create(vertx, pool, breaker, config.getJsonObject("VIRTUOSO_CONFIG"));
+    }
+
+    /**
+     * Assign datasets stored before the catalogue membership was tracked locally and, if a reconciliationInterval (ms)
+     * is configured, periodically reconcile the membership with piveau. Messages are only accepted once the datasets
+     * are assigned, since update and unregister only see the datasets assigned to the catalogue.
+     */
+    private void startCatalogueReconciliation(JsonObject piveauConfig, Handler<Void> assigned) {
+        DatasetManager datasetManager = new DatasetManager(vertx);
+        datasetManager.reconcileUnassigned(reply -> {
+            if (reply.failed()) {
+                LOGGER.error("Catalogue reconciliation failed.", reply.cause());
+            }
+            assigned.handle(null);
+        });
+        long interval = piveauConfig.getLong("reconciliationInterval", 0L);
+        if (interval > 0) {
+            vertx.setPeriodic(interval, id -> datasetManager.reconcile(reply -> {
+                if (reply.failed()) {
+                    LOGGER.error("Catalogue reconciliation failed.", reply.cause());
+                }
+            }));
+        }
+    }
+
     private void createHttpServer(Vertx vertx) {
         HttpServer server = vertx.createHttpServer();
 
@@ -155,13 +248,14 @@ public class MainVerticle extends AbstractVerticle {
         router.post("/data").handler(routingContext -> getData(IDSMessageParser.parse(routingContext.request().formAttributes()),
                 reply -> replyMessage(reply, routingContext.response())));
         router.route("/about").handler(routingContext -> about(reply -> reply(reply, routingContext.response())));
+        router.get("/status").handler(routingContext -> status(reply -> reply(reply, routingContext.response())));
         router.route("/").handler(routingContext -> about(reply -> reply(reply, routingContext.response())));
         LOGGER.info("Starting odb-manager ");
         server.requestHandler(router).listen(this.servicePort);
         LOGGER.info("odb-manager deployed on port " + this.servicePort);
     }
 
-    private void getData(Optional<IDSMessage> input, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    private void getData(Optional<IDSMessage> input, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         IDSMessage idsMessage = input.orElse(new IDSMessage(null, null));
 
         if (!idsMessage.getHeader().isPresent()) {
@@ -173,14 +267,17 @@ public class MainVerticle extends AbstractVerticle {
         } else {
             Message header = idsMessage.getHeader().get();
             URI uri = idsMessage.getHeader().get().getId();
-            authAdapterService.isAuthenticated(header.getSecurityToken().getTokenValue(), authreply -> {
+            tokenVerifier.isAuthenticated(header.getSecurityToken() == null ? null : header.getSecurityToken().getTokenValue(), authreply -> {
                 if (authreply.succeeded()) {
                     try {
                         if (idsMessage.getPayload().isPresent()) {
                             String payload = idsMessage.getPayload().get();
-                            if (header instanceof QueryMessage) {
+                            if (header instanceof QueryMessage && header.getIssuerConnector() == null) {
+                                LOGGER.error("QueryMessage without issuer connector received.");
+                                idsService.handleRejectionMessage(RejectionReason.MALFORMED_MESSAGE, uri, readyHandler);
+                            } else if (header instanceof QueryMessage) {
                                 LOGGER.info("QueryMessage received.");
-                                queryMessageController.queryMessage(payload, uri, readyHandler);
+                                queryMessageController.queryMessage(payload, uri, header.getIssuerConnector().toString(), readyHandler);
                             } else {
                                 LOGGER.error(RejectionReason.MESSAGE_TYPE_NOT_SUPPORTED);
                                 idsService.handleRejectionMessage(RejectionReason.MESSAGE_TYPE_NOT_SUPPORTED, uri, readyHandler);
@@ -200,7 +297,7 @@ public class MainVerticle extends AbstractVerticle {
         }
     }
 
-    private void getInfrastructure(Optional<IDSMessage> input, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    private void getInfrastructure(Optional<IDSMessage> input, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         IDSMessage idsMessage = input.orElse(new IDSMessage(null, null));
 
         if (!idsMessage.getHeader().isPresent()) {
@@ -212,7 +309,7 @@ public class MainVerticle extends AbstractVerticle {
         } else {
             Message header = idsMessage.getHeader().get();
             URI uri = idsMessage.getHeader().get().getId();
-            authAdapterService.isAuthenticated(header.getSecurityToken().getTokenValue(), authreply -> {
+            tokenVerifier.isAuthenticated(header.getSecurityToken() == null ? null : header.getSecurityToken().getTokenValue(), authreply -> {
                 if (authreply.succeeded()) {
                     try {
                         if (header instanceof DescriptionRequestMessage) {
@@ -271,30 +368,35 @@ public class MainVerticle extends AbstractVerticle {
 
 
     private void about(Handler<AsyncResult<String>> resultHandler) {
-        ConfigStoreOptions confStore = new ConfigStoreOptions()
-                .setType("env");
-
-        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
-
-        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
+        idsService.buildBroker(brokerConfiguration.get(), brokerResult -> {
+            if (brokerResult.succeeded()) {
+                try {
+                    resultHandler.handle(Future.succeededFuture(serializer.serialize(brokerResult.result())));
+                } catch (IOException e) {
+                    LOGGER.error(e);
+                    resultHandler.handle(Future.failedFuture(e));
+                }
+            } else {
+                resultHandler.handle(Future.failedFuture(brokerResult.cause()));
+            }
+        });
+    }
 
-        retriever.getConfig(config -> {
-            if(config.succeeded()){
-                idsService.buildBroker(config.result().getJsonObject("BROKER_CONFIG"), brokerResult -> {
-                    if (brokerResult.succeeded()) {
-                        try {
-                            resultHandler.handle(Future.succeededFuture(serializer.serialize(brokerResult.result())));
-                        } catch (IOException e) {
-                            LOGGER.error(e);
-                            resultHandler.handle(Future.failedFuture(e));
-                        }
-                    } else {
-                        resultHandler.handle(Future.failedFuture(brokerResult.cause()));
-                    }
-                });
+    /**
+     * Metrics of the caches, the query gate and the connection pools of this verticle, and of the database service. The
+     * status is served without the database metrics if the database service does not answer.
+     */
+    private void status(Handler<AsyncResult<JsonObject>> resultHandler) {
+        JsonObject status = new JsonObject();
+        metrics.forEach((name, source) -> status.put(name, source.get()));
+        databaseService.metrics(reply -> {
+            if (reply.succeeded()) {
+                status.put("database", reply.result());
             } else {
-                resultHandler.handle(Future.failedFuture(config.cause()));
+                LOGGER.error("Database metrics could not be retrieved.", reply.cause());
+                status.put("database", new JsonObject().put("error", reply.cause().getMessage()));
             }
+            resultHandler.handle(Future.succeededFuture(status));
         });
     }
 
@@ -310,19 +412,19 @@ public class MainVerticle extends AbstractVerticle {
         }
     }
 
-    private void replyMessage(AsyncResult<HttpEntity> result, HttpServerResponse response) {
+    private void replyMessage(AsyncResult<MultipartResponse> result, HttpServerResponse response) {
         if (result.succeeded() && result.result() != null) {
             if (!response.headWritten()) {
-                try(ByteArrayOutputStream baos = new ByteArrayOutputStream()){
-                    Header contentTypeHeader =  result.result().getContentType();
-                    IOUtils.copy(result.result().getContent(), baos);
-                    response.putHeader(contentTypeHeader.getName(), contentTypeHeader.getValue());
-                    response.end(Buffer.buffer(baos.toByteArray()));
-                } catch (IOException e) {
-                    LOGGER.error(e);
-                    response.setStatusCode(500);
-                    response.end();
-                }
+                response.putHeader("content-type", result.result().contentType());
+                response.setChunked(true);
+                result.result().writeTo(response, writeResult -> {
+                    if (writeResult.succeeded()) {
+                        response.end();
+                    } else {
+                        LOGGER.error("Multipart response could not be written.", writeResult.cause());
+                        response.close();
+                    }
+                });
             }
         } else {
             response.setStatusCode(500).end();
@@ -5,6 +5,7 @@ import de.fraunhofer.fokus.ids.services.databaseService.DatabaseService;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -12,7 +13,14 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class DatasetManager {
     private DatabaseService databaseService;
@@ -23,7 +31,17 @@ public class DatasetManager {
     private final static String RESOLVE_DS_STATEMENT = "SELECT * FROM datasets WHERE internal_id=?";
     private static final String DELETE_DS_UPDATE = "DELETE FROM datasets WHERE internal_id = ?";
     private static final String DELETE_DS_EXTERNAL_UPDATE = "DELETE FROM datasets WHERE external_id = ?";
-    private final static String INSERT_DS_STATEMENT = "INSERT INTO datasets (created_at, updated_at, external_id, internal_id) values (NOW(),NOW(),?,?)";
+    private final static String INSERT_DS_STATEMENT = "INSERT INTO datasets (created_at, updated_at, external_id, internal_id, catalogue_id) values (NOW(),NOW(),?,?,?)";
+    private final static String INSERT_DS_HASH_STATEMENT = "INSERT INTO datasets (created_at, updated_at, external_id, internal_id, catalogue_id, content_hash) values (NOW(),NOW(),?,?,?,?)";
+    private final static String UPDATE_DS_HASH_UPDATE = "UPDATE datasets SET content_hash = ?, updated_at = NOW() WHERE external_id = ?";
+    private static final String DELETE_ALL_DS_UPDATE = "DELETE FROM datasets WHERE internal_id IN (?)";
+    private final static String RESOLVE_ALL_DS_STATEMENT = "SELECT * FROM datasets WHERE internal_id IN (?)";
+    private final static String SELECT_ALL_DS_STATEMENT = "SELECT * FROM datasets WHERE external_id IN (?)";
+    private final static String SELECT_CATALOGUE_DS_STATEMENT = "SELECT * FROM datasets WHERE catalogue_id = ?";
+    private final static String COUNT_UNASSIGNED_DS_STATEMENT = "SELECT COUNT(*) AS count FROM datasets WHERE catalogue_id IS NULL";
+    private final static String SELECT_CATALOGUE_IDS_STATEMENT = "SELECT internal_id FROM catalogues";
+    private final static String ASSIGN_DS_CATALOGUE_UPDATE = "UPDATE datasets SET catalogue_id = ?, updated_at = NOW() WHERE internal_id IN (?)";
+    private final static String PIVEAU_DATASET_PREFIX = "https://ids.fokus.fraunhofer.de/set/data/";
 
     public DatasetManager(Vertx vertx) {
         this.databaseService = DatabaseService.createProxy(vertx, "databaseService");
@@ -71,8 +89,8 @@ public class DatasetManager {
         });
     }
 
-    public void create(String internalId, String externalId,Handler<AsyncResult<Void>> resultHandler){
-        databaseService.update(INSERT_DS_STATEMENT, new JsonArray().add(internalId).add(externalId), reply -> {
+    public void create(String externalId, String internalId, String catalogueId, Handler<AsyncResult<Void>> resultHandler){
+        databaseService.update(INSERT_DS_STATEMENT, new JsonArray().add(externalId).add(internalId).add(catalogueId), reply -> {
             if (reply.succeeded()) {
                 resultHandler.handle(Future.succeededFuture());
             } else {
@@ -82,7 +100,275 @@ public class DatasetManager {
         });
     }
 
+    public void create(String externalId, String internalId, String catalogueId, String contentHash, Handler<AsyncResult<Void>> resultHandler){
+        batchUpdate(INSERT_DS_HASH_STATEMENT, Collections.singletonList(new JsonArray().add(externalId).add(internalId).add(catalogueId).add(contentHash)), resultHandler);
+    }
+
+    /**
+     * Persist all datasets of a catalogue with multi-row inserts in one transaction.
+     * @param catalogueId piveau id of the catalogue the datasets belong to
+     * @param externalToInternalIds IDS id of each dataset mapped to its piveau id
+     */
+    public void createAll(String catalogueId, Map<String, String> externalToInternalIds, Handler<AsyncResult<Void>> resultHandler){
+        List<JsonArray> rows = new ArrayList<>();
+        externalToInternalIds.forEach((externalId, internalId) -> rows.add(new JsonArray().add(externalId).add(internalId).add(catalogueId)));
+        insertAll(INSERT_DS_STATEMENT, rows, resultHandler);
+    }
+
+    /**
+     * Persist all datasets of a catalogue with the content hashes of their descriptions with multi-row inserts in one
+     * transaction.
+     * @param contentHashes IDS id of each dataset mapped to its content hash
+     */
+    public void createAll(String catalogueId, Map<String, String> externalToInternalIds, Map<String, String> contentHashes, Handler<AsyncResult<Void>> resultHandler){
+        List<JsonArray> rows = new ArrayList<>();
+        externalToInternalIds.forEach((externalId, internalId) -> rows.add(new JsonArray().add(externalId).add(internalId).add(catalogueId).add(contentHashes.get(externalId))));
+        insertAll(INSERT_DS_HASH_STATEMENT, rows, resultHandler);
+    }
+
+    /**
+     * Executed once per dataset, since every dataset gets a hash of its own.
+     * @param contentHashes IDS id of each dataset mapped to the content hash of its current description
+     */
+    public void updateContentHashes(Map<String, String> contentHashes, Handler<AsyncResult<Void>> resultHandler){
+        List<JsonArray> rows = new ArrayList<>();
+        contentHashes.forEach((externalId, contentHash) -> rows.add(new JsonArray().add(contentHash).add(externalId)));
+        batchUpdate(UPDATE_DS_HASH_UPDATE, rows, resultHandler);
+    }
+
+    public void deleteAllByInternalIds(Collection<String> internalIds, Handler<AsyncResult<Void>> resultHandler){
+        updateIn(DELETE_ALL_DS_UPDATE, new JsonArray(), internalIds, resultHandler);
+    }
+
+    public void findAllByInternalIds(Collection<String> internalIds, Handler<AsyncResult<List<JsonObject>>> resultHandler){
+        queryIn(RESOLVE_ALL_DS_STATEMENT, internalIds, resultHandler);
+    }
+
+    public void findAllByExternalIds(Collection<String> externalIds, Handler<AsyncResult<List<JsonObject>>> resultHandler){
+        queryIn(SELECT_ALL_DS_STATEMENT, externalIds, resultHandler);
+    }
+
+    /**
+     * Resolve the IDS ids of the given piveau datasets with a single query.
+     * @param internalIds piveau ids of the datasets
+     * @param resultHandler IDS id of each known dataset mapped to its piveau id
+     */
+    public void resolveExternalIds(Collection<String> internalIds, Handler<AsyncResult<Map<String, String>>> resultHandler){
+        findAllByInternalIds(internalIds, reply -> {
+            if (reply.succeeded()) {
+                Map<String, String> externalToInternalIds = new HashMap<>();
+                for (JsonObject dataset : reply.result()) {
+                    externalToInternalIds.put(dataset.getString("external_id"), dataset.getString("internal_id"));
+                }
+                resultHandler.handle(Future.succeededFuture(externalToInternalIds));
+            } else {
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    private void batchUpdate(String query, List<JsonArray> rows, Handler<AsyncResult<Void>> resultHandler){
+        if (rows.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        databaseService.batchUpdate(query, rows, reply -> {
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+                LOGGER.error(reply.cause());
+            }
+        });
+    }
+
+    private void insertAll(String query, List<JsonArray> rows, Handler<AsyncResult<Void>> resultHandler){
+        if (rows.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        databaseService.insertAll(query, rows, reply -> {
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+                LOGGER.error(reply.cause());
+            }
+        });
+    }
+
+    private void updateIn(String query, JsonArray params, Collection<String> values, Handler<AsyncResult<Void>> resultHandler){
+        if (values.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        databaseService.updateIn(query, params, new JsonArray(new ArrayList<>(values)), reply -> {
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+                LOGGER.error(reply.cause());
+            }
+        });
+    }
+
+    private void queryIn(String query, Collection<String> values, Handler<AsyncResult<List<JsonObject>>> resultHandler){
+        if (values.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture(new ArrayList<>()));
+            return;
+        }
+        databaseService.queryIn(query, new JsonArray(), new JsonArray(new ArrayList<>(values)), reply -> {
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(reply.result()));
+            } else {
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+                LOGGER.error(reply.cause());
+            }
+        });
+    }
+
+    /**
+     * Piveau ids of all datasets of a catalogue, answered from the local catalogue membership.
+     */
     public void dataAssetIdsOfCatalogue(String catalogueInternalId, Handler<AsyncResult<List<String>>> asyncResultHandler) {
+        databaseService.query(SELECT_CATALOGUE_DS_STATEMENT, new JsonArray().add(catalogueInternalId), reply -> {
+            if (reply.succeeded()) {
+                asyncResultHandler.handle(Future.succeededFuture(reply.result().stream()
+                        .map(dataset -> dataset.getString("internal_id"))
+                        .collect(Collectors.toList())));
+            } else {
+                LOGGER.error("Can not get Ids of Catalogue", reply.cause());
+                asyncResultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * All dataset rows of a catalogue, answered from the local catalogue membership.
+     */
+    public void datasetsOfCatalogue(String catalogueInternalId, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        databaseService.query(SELECT_CATALOGUE_DS_STATEMENT, new JsonArray().add(catalogueInternalId), reply -> {
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(reply.result()));
+            } else {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * All datasets of a catalogue, answered from the local catalogue membership.
+     * @param resultHandler IDS id of each dataset mapped to its piveau id
+     */
+    public void findAllByCatalogue(String catalogueInternalId, Handler<AsyncResult<Map<String, String>>> resultHandler) {
+        databaseService.query(SELECT_CATALOGUE_DS_STATEMENT, new JsonArray().add(catalogueInternalId), reply -> {
+            if (reply.succeeded()) {
+                Map<String, String> externalToInternalIds = new HashMap<>();
+                for (JsonObject dataset : reply.result()) {
+                    externalToInternalIds.put(dataset.getString("external_id"), dataset.getString("internal_id"));
+                }
+                resultHandler.handle(Future.succeededFuture(externalToInternalIds));
+            } else {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * Reconcile the catalogue membership of all catalogues, but only if datasets without a catalogue exist, e.g. rows
+     * stored before the membership was tracked locally. Datasets piveau does not list for any catalogue stay
+     * unassigned and are reported.
+     */
+    public void reconcileUnassigned(Handler<AsyncResult<Void>> resultHandler) {
+        countUnassigned(countReply -> {
+            if (countReply.failed()) {
+                resultHandler.handle(Future.failedFuture(countReply.cause()));
+            } else if (countReply.result() > 0) {
+                LOGGER.info(countReply.result() + " datasets without catalogue found, reconciling with piveau.");
+                reconcile(reconcileReply -> countUnassigned(remainingReply -> {
+                    if (remainingReply.succeeded() && remainingReply.result() > 0) {
+                        LOGGER.warn(remainingReply.result() + " datasets are still without catalogue and are not seen by update and unregister.");
+                    }
+                    resultHandler.handle(reconcileReply);
+                }));
+            } else {
+                resultHandler.handle(Future.succeededFuture());
+            }
+        });
+    }
+
+    private void countUnassigned(Handler<AsyncResult<Long>> resultHandler) {
+        databaseService.query(COUNT_UNASSIGNED_DS_STATEMENT, new JsonArray(), reply -> {
+            if (reply.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(reply.result().isEmpty() ? 0L : reply.result().get(0).getLong("count", 0L)));
+            } else {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * Reconcile the local catalogue membership of every catalogue with piveau, one catalogue at a time.
+     */
+    public void reconcile(Handler<AsyncResult<Void>> resultHandler) {
+        databaseService.query(SELECT_CATALOGUE_IDS_STATEMENT, new JsonArray(), reply -> {
+            if (reply.succeeded()) {
+                Future<Void> reconciliation = Future.succeededFuture();
+                for (JsonObject catalogue : reply.result()) {
+                    String catalogueInternalId = catalogue.getString("internal_id");
+                    reconciliation = reconciliation.compose(v -> {
+                        Promise<Void> promise = Promise.promise();
+                        reconcileCatalogue(catalogueInternalId, catalogueReply -> promise.complete());
+                        return promise.future();
+                    });
+                }
+                reconciliation.setHandler(resultHandler);
+            } else {
+                LOGGER.error(reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * Assign every dataset piveau lists for the catalogue to it locally. Datasets only known locally are reported but
+     * kept, since piveau may lag behind.
+     */
+    public void reconcileCatalogue(String catalogueInternalId, Handler<AsyncResult<Void>> resultHandler) {
+        piveauDataAssetIdsOfCatalogue(catalogueInternalId, piveauReply -> {
+            if (piveauReply.failed()) {
+                resultHandler.handle(Future.failedFuture(piveauReply.cause()));
+                return;
+            }
+            dataAssetIdsOfCatalogue(catalogueInternalId, localReply -> {
+                if (localReply.failed()) {
+                    resultHandler.handle(Future.failedFuture(localReply.cause()));
+                    return;
+                }
+                Set<String> localIds = new HashSet<>(localReply.result());
+                List<String> unassigned = new ArrayList<>();
+                for (String piveauId : piveauReply.result()) {
+                    if (!localIds.remove(piveauId)) {
+                        unassigned.add(piveauId);
+                    }
+                }
+                if (!localIds.isEmpty()) {
+                    LOGGER.info("Datasets " + localIds + " of catalogue " + catalogueInternalId + " are not listed by piveau.");
+                }
+                updateIn(ASSIGN_DS_CATALOGUE_UPDATE, new JsonArray().add(catalogueInternalId), unassigned, reply -> {
+                    if (reply.succeeded() && !unassigned.isEmpty()) {
+                        LOGGER.info(unassigned.size() + " datasets of catalogue " + catalogueInternalId + " reconciled.");
+                    }
+                    resultHandler.handle(reply);
+                });
+            });
+        });
+    }
+
+    private void piveauDataAssetIdsOfCatalogue(String catalogueInternalId, Handler<AsyncResult<List<String>>> asyncResultHandler) {
         piveauMessageService.getAllDatasetsOfCatalogue(catalogueInternalId, jsonReply -> {
             if (jsonReply.succeeded()) {
                 ArrayList<String> ids = new ArrayList<>();
@@ -90,9 +376,8 @@ public class DatasetManager {
                     for (Object jsonObject : jsonReply.result().getJsonArray("@graph")) {
                         JsonObject dataAsset = (JsonObject) jsonObject;
                         String idString = dataAsset.getString("@id");
-                        String containsString = "https://ids.fokus.fraunhofer.de/set/data/";
-                        if (idString.toLowerCase().contains(containsString.toLowerCase())) {
-                            String dataAssetId = idString.substring(containsString.length());
+                        if (idString.toLowerCase().contains(PIVEAU_DATASET_PREFIX.toLowerCase())) {
+                            String dataAssetId = idString.substring(PIVEAU_DATASET_PREFIX.length());
                             ids.add(dataAssetId);
                         }
                     }
@@ -1,53 +1,259 @@
 package de.fraunhofer.fokus.ids.manager;
 
-import de.fraunhofer.fokus.ids.services.dcatTransformerService.DCATTransformerService;
-import de.fraunhofer.fokus.ids.utils.TSConnector;
+import com.github.jsonldjava.utils.JsonUtils;
+import de.fraunhofer.fokus.ids.utils.JsonLdContextResolver;
+import de.fraunhofer.fokus.ids.utils.QueryResultCache;
+import de.fraunhofer.fokus.ids.utils.TripleStore;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
-import io.vertx.core.buffer.Buffer;
-import io.vertx.ext.web.client.HttpResponse;
-import org.apache.commons.io.IOUtils;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RIOT;
+import org.apache.jena.sparql.util.Context;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GraphManager {
-    private DCATTransformerService dcatTransformerService;
-    private TSConnector tsConnector;
+    private final Logger LOGGER = LoggerFactory.getLogger(GraphManager.class.getName());
+    private Vertx vertx;
+    private TripleStore tripleStore;
+    private JsonLdContextResolver jsonLdContextResolver;
+    private QueryResultCache queryResultCache;
 
-    public GraphManager(Vertx vertx, TSConnector tsConnector){
-        this.dcatTransformerService = DCATTransformerService.createProxy(vertx, "dcatTransformerService");
-        this.tsConnector = tsConnector;
+    private JsonObject resolvedContext;
+    private Context parserContext;
+
+    private final Map<String, Deque<Runnable>> pendingWrites = new HashMap<>();
+
+    public GraphManager(Vertx vertx, TripleStore tripleStore, JsonLdContextResolver jsonLdContextResolver){
+        this(vertx, tripleStore, jsonLdContextResolver, null);
     }
 
-    public void create(String uri, String json, Handler<AsyncResult<HttpResponse<Buffer>>> resultHandler){
-        dcatTransformerService.transformJsonForVirtuoso(json,stringAsyncResult -> {
-            Model model = ModelFactory.createDefaultModel();
-            try {
-                model.read(IOUtils.toInputStream(stringAsyncResult.result(), "UTF-8"), null, "JSON-LD");
-                tsConnector.putGraph(uri ,model, resultHandler);
-            } catch (IOException e) {
-                e.printStackTrace();
+    public GraphManager(Vertx vertx, TripleStore tripleStore, JsonLdContextResolver jsonLdContextResolver, QueryResultCache queryResultCache){
+        this.vertx = vertx;
+        this.tripleStore = tripleStore;
+        this.jsonLdContextResolver = jsonLdContextResolver;
+        this.queryResultCache = queryResultCache;
+    }
+
+    /**
+     * Parse the serialized infomodel object straight into a model and replace the graph with it in a single request.
+     * The IDS context replaces the remote context reference while parsing, so the document is neither re-parsed nor
+     * re-serialized to inject it. Documents are parsed on worker threads, never on the event loop.
+     */
+    public void create(String uri, String json, Handler<AsyncResult<Void>> resultHandler){
+        serialized(Collections.singleton(uri), done -> replace(uri, json, done), invalidating(resultHandler));
+    }
+
+    /**
+     * Create or replace several graphs with a batch write to the triple store, which needs far fewer requests than
+     * creating them one by one.
+     * @param graphs serialized infomodel object of each graph
+     */
+    public void createAll(Map<String, String> graphs, Handler<AsyncResult<Void>> resultHandler){
+        serialized(graphs.keySet(), done -> replaceAll(graphs, done), invalidating(resultHandler));
+    }
+
+    /**
+     * Same as create, the graph is replaced atomically, so queries never see it missing.
+     */
+    public void update(String uri, String json, Handler<AsyncResult<Void>> readyHandler){
+        create(uri, json, readyHandler);
+    }
+
+    public void delete(String uri, Handler<AsyncResult<Void>> readyHandler){
+        serialized(Collections.singleton(uri), done -> tripleStore.deleteGraph(uri, done), invalidating(readyHandler));
+    }
+
+    private void replace(String uri, String json, Handler<AsyncResult<Void>> resultHandler){
+        parserContext(contextResult -> {
+            if (contextResult.succeeded()) {
+                parse(uri, json, contextResult.result()).setHandler(parsed -> {
+                    if (parsed.succeeded()) {
+                        tripleStore.putGraph(uri, parsed.result(), resultHandler);
+                    } else {
+                        resultHandler.handle(Future.failedFuture(parsed.cause()));
+                    }
+                });
+            } else {
+                resultHandler.handle(Future.failedFuture(contextResult.cause()));
+            }
+        });
+    }
+
+    /**
+     * The documents of a batch are parsed each on its own, so they run in parallel on the worker pool and none of them
+     * holds a worker thread for the whole batch.
+     */
+    private void replaceAll(Map<String, String> graphs, Handler<AsyncResult<Void>> resultHandler){
+        parserContext(contextResult -> {
+            if (contextResult.succeeded()) {
+                List<String> uris = new ArrayList<>(graphs.keySet());
+                List<Future> parsed = new ArrayList<>(uris.size());
+                for (String uri : uris) {
+                    parsed.add(parse(uri, graphs.get(uri), contextResult.result()));
+                }
+                CompositeFuture.all(parsed).setHandler(all -> {
+                    if (all.succeeded()) {
+                        Map<String, Model> models = new LinkedHashMap<>();
+                        for (int i = 0; i < uris.size(); i++) {
+                            models.put(uris.get(i), all.result().resultAt(i));
+                        }
+                        tripleStore.putGraphs(models, resultHandler);
+                    } else {
+                        resultHandler.handle(Future.failedFuture(all.cause()));
+                    }
+                });
+            } else {
+                resultHandler.handle(Future.failedFuture(contextResult.cause()));
             }
         });
+    }
+
+    private Future<Model> parse(String uri, String json, Context context){
+        Promise<Model> promise = Promise.promise();
+        vertx.<Model>executeBlocking(parsing -> {
+            try {
+                parsing.complete(parse(json, context));
+            } catch (RuntimeException e) {
+                LOGGER.error("Graph " + uri + " could not be parsed.", e);
+                parsing.fail(e);
+            }
+        }, false, promise);
+        return promise.future();
+    }
 
+    private Model parse(String json, Context context){
+        Model model = ModelFactory.createDefaultModel();
+        RDFParser.create()
+                .source(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))
+                .lang(Lang.JSONLD)
+                .context(context)
+                .parse(model);
+        return model;
     }
 
-    public void update(String uri, String json, Handler<AsyncResult<HttpResponse<Buffer>>> readyHandler){
-        tsConnector.deleteGraph(uri,deleteAsync->{
-            if (deleteAsync.succeeded()){
-                create(uri,json,readyHandler);
+    /**
+     * Writes to the same graph are run one after another in the order they were issued, so a later write is never
+     * overtaken by an earlier one. A write to several graphs runs once it is the next write of each of them. Writes
+     * are queued for all of their graphs at once, so writes to overlapping graphs cannot wait for each other.
+     */
+    private void serialized(Collection<String> uris, Handler<Handler<AsyncResult<Void>>> write, Handler<AsyncResult<Void>> resultHandler){
+        Set<String> graphs = new LinkedHashSet<>(uris);
+        if (graphs.isEmpty()) {
+            write.handle(resultHandler);
+            return;
+        }
+        AtomicInteger waiting = new AtomicInteger(graphs.size());
+        Runnable queued = new Runnable() {
+            @Override
+            public void run() {
+                if (waiting.decrementAndGet() > 0) {
+                    return;
+                }
+                write.handle(ar -> {
+                    List<Runnable> next = new ArrayList<>();
+                    synchronized (pendingWrites) {
+                        for (String uri : graphs) {
+                            Deque<Runnable> queue = pendingWrites.get(uri);
+                            queue.remove(this);
+                            if (queue.isEmpty()) {
+                                pendingWrites.remove(uri);
+                            } else {
+                                next.add(queue.peek());
+                            }
+                        }
+                    }
+                    next.forEach(Runnable::run);
+                    resultHandler.handle(ar);
+                });
             }
-            else {
-                readyHandler.handle(Future.failedFuture(deleteAsync.cause()));
+        };
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (pendingWrites) {
+            for (String uri : graphs) {
+                Deque<Runnable> queue = pendingWrites.computeIfAbsent(uri, key -> new ArrayDeque<>());
+                queue.add(queued);
+                if (queue.size() == 1) {
+                    ready.add(queued);
+                }
             }
-        });
+        }
+        ready.forEach(Runnable::run);
     }
 
-    public void delete(String uri, Handler<AsyncResult<HttpResponse<Buffer>>> readyHandler){
-        tsConnector.deleteGraph(uri,readyHandler);
+    /**
+     * Cached query results are dropped after every write, whether it succeeded or not.
+     */
+    private <T> Handler<AsyncResult<T>> invalidating(Handler<AsyncResult<T>> resultHandler){
+        if (queryResultCache == null) {
+            return resultHandler;
+        }
+        return ar -> {
+            queryResultCache.invalidate();
+            resultHandler.handle(ar);
+        };
+    }
+
+    /**
+     * The JSON-LD parser expects the context as plain maps and lists. It is converted once per context version served
+     * by the resolver. Writes fail while the resolver only serves its degraded bundled copy: without the term
+     * definitions IRIs would be stored as literals, and the content hashes stored for them would keep the datasets from
+     * being written again once the complete context is back.
+     */
+    private void parserContext(Handler<AsyncResult<Context>> resultHandler){
+        jsonLdContextResolver.resolve(ar -> {
+            if (ar.failed()) {
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            if (jsonLdContextResolver.isDegraded(ar.result())) {
+                resultHandler.handle(Future.failedFuture("Only the degraded JSON-LD context is available, graph not written."));
+                return;
+            }
+            Context context;
+            synchronized (this) {
+                if (ar.result() != resolvedContext) {
+                    try {
+                        Object compiled = JsonUtils.fromString(ar.result().getJsonObject("@context").encode());
+                        parserContext = new Context();
+                        parserContext.set(RIOT.JSONLD_CONTEXT, compiled);
+                        resolvedContext = ar.result();
+                    } catch (IOException e) {
+                        LOGGER.error(e);
+                        parserContext = null;
+                    }
+                }
+                context = parserContext;
+            }
+            if (context == null) {
+                resultHandler.handle(Future.failedFuture("JSON-LD context could not be compiled."));
+                return;
+            }
+            resultHandler.handle(Future.succeededFuture(context));
+        });
     }
 }
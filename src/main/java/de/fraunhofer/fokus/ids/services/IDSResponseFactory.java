@@ -0,0 +1,199 @@
+package de.fraunhofer.fokus.ids.services;
+
+import de.fraunhofer.fokus.ids.utils.BrokerConfiguration;
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.IOException;
+import java.net.URI;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the broker's IDS response headers. The URIs derived from the broker configuration are computed once per
+ * configuration snapshot, and rejection messages are rendered from serialized templates per RejectionReason, so only
+ * the message id, correlation message and issue date are filled in per message.
+ */
+public class IDSResponseFactory {
+
+    static final String INFO_MODEL_VERSION = "3.1.0";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(IDSResponseFactory.class.getName());
+    private static final DatatypeFactory DATATYPE_FACTORY = datatypeFactory();
+    private static final XMLGregorianCalendar TEMPLATE_DATE = DATATYPE_FACTORY.newXMLGregorianCalendar("1901-02-03T04:05:06.789Z");
+
+    private BrokerConfiguration brokerConfiguration;
+    private Serializer serializer = new Serializer();
+    private volatile Endpoints endpoints;
+    private final Map<RejectionReason, RejectionTemplate> rejectionTemplates = new ConcurrentHashMap<>();
+
+    public IDSResponseFactory(BrokerConfiguration brokerConfiguration) {
+        this.brokerConfiguration = brokerConfiguration;
+    }
+
+    public MessageProcessedNotificationMessage succeeded(URI correlationMessageURI, String token) {
+        Endpoints endpoints = endpoints();
+        return new MessageProcessedNotificationMessageBuilder(endpoints.messageId("/MessageProcessedNotification/"))
+                ._correlationMessage_(correlationMessageURI)
+                ._issued_(now())
+                ._modelVersion_(INFO_MODEL_VERSION)
+                ._issuerConnector_(endpoints.issuerConnector)
+                ._securityToken_(securityToken(endpoints, token))
+                .build();
+    }
+
+    public ResultMessage result(URI correlationMessageURI, String token) {
+        Endpoints endpoints = endpoints();
+        return new ResultMessageBuilder(endpoints.messageId("/ResultMessage/"))
+                ._correlationMessage_(correlationMessageURI)
+                ._modelVersion_(INFO_MODEL_VERSION)
+                ._issued_(now())
+                ._issuerConnector_(endpoints.issuerConnector)
+                ._securityToken_(securityToken(endpoints, token))
+                .build();
+    }
+
+    public DescriptionResponseMessage descriptionResponse(URI correlationMessageURI, String token) {
+        Endpoints endpoints = endpoints();
+        return new DescriptionResponseMessageBuilder(endpoints.messageId("/DescriptionResponseMessage/"))
+                ._issued_(now())
+                ._issuerConnector_(endpoints.issuerConnector)
+                ._correlationMessage_(correlationMessageURI)
+                ._modelVersion_(INFO_MODEL_VERSION)
+                ._securityToken_(securityToken(endpoints, token))
+                .build();
+    }
+
+    public RejectionMessage rejection(RejectionReason rejectionReason, URI correlationMessageURI, String token) {
+        Endpoints endpoints = endpoints();
+        return rejection(endpoints, endpoints.messageId("/RejectionMessage/"), rejectionReason, correlationMessageURI, now(), token);
+    }
+
+    /**
+     * Serialized rejection message. The template of the reason is serialized once per configuration and token; if a
+     * template cannot be used, the message is serialized as a whole.
+     */
+    public String serializedRejection(RejectionReason rejectionReason, URI correlationMessageURI, String token) throws IOException {
+        Endpoints endpoints = endpoints();
+        if (correlationMessageURI != null) {
+            RejectionTemplate template = rejectionTemplates.get(rejectionReason);
+            if (template == null || template.endpoints != endpoints || !template.token.equals(token)) {
+                template = new RejectionTemplate(endpoints, rejectionReason, token);
+                rejectionTemplates.put(rejectionReason, template);
+            }
+            if (template.json != null) {
+                return template.render(endpoints.messageId("/RejectionMessage/"), correlationMessageURI, now());
+            }
+        }
+        return serializer.serialize(rejection(rejectionReason, correlationMessageURI, token));
+    }
+
+    public URI issuerConnector() {
+        return endpoints().issuerConnector;
+    }
+
+    public XMLGregorianCalendar now() {
+        return DATATYPE_FACTORY.newXMLGregorianCalendar(new GregorianCalendar());
+    }
+
+    private RejectionMessage rejection(Endpoints endpoints, URI id, RejectionReason rejectionReason, URI correlationMessageURI, XMLGregorianCalendar issued, String token) {
+        return new RejectionMessageBuilder(id)
+                ._correlationMessage_(correlationMessageURI)
+                ._issued_(issued)
+                ._modelVersion_(INFO_MODEL_VERSION)
+                ._issuerConnector_(endpoints.issuerConnector)
+                ._securityToken_(securityToken(endpoints, token))
+                ._rejectionReason_(rejectionReason)
+                .build();
+    }
+
+    private DynamicAttributeToken securityToken(Endpoints endpoints, String token) {
+        return new DynamicAttributeTokenBuilder(endpoints.dat)
+                ._tokenFormat_(TokenFormat.JWT)
+                ._tokenValue_(token)
+                .build();
+    }
+
+    private Endpoints endpoints() {
+        JsonObject config = brokerConfiguration.get();
+        Endpoints current = endpoints;
+        if (current == null || current.config != config) {
+            current = new Endpoints(config);
+            endpoints = current;
+        }
+        return current;
+    }
+
+    private static DatatypeFactory datatypeFactory() {
+        try {
+            return DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Endpoints {
+        private final JsonObject config;
+        private final String baseUrl;
+        private final URI issuerConnector;
+        private final URI dat;
+
+        private Endpoints(JsonObject config) {
+            this.config = config;
+            this.baseUrl = config.getString("baseUrl");
+            this.issuerConnector = URI.create(baseUrl + "#Broker");
+            this.dat = URI.create(baseUrl + "#DAT");
+        }
+
+        private URI messageId(String path) {
+            return URI.create(baseUrl + path + UUID.randomUUID());
+        }
+    }
+
+    private class RejectionTemplate {
+        private final Endpoints endpoints;
+        private final String token;
+        private final String idPlaceholder;
+        private final String correlationPlaceholder;
+        private final String issuedPlaceholder = TEMPLATE_DATE.toXMLFormat();
+        private String json;
+
+        private RejectionTemplate(Endpoints endpoints, RejectionReason rejectionReason, String token) {
+            this.endpoints = endpoints;
+            this.token = token;
+            URI id = endpoints.messageId("/RejectionMessage/");
+            URI correlation = URI.create("urn:template:" + UUID.randomUUID());
+            this.idPlaceholder = id.toString();
+            this.correlationPlaceholder = correlation.toString();
+            try {
+                String serialized = serializer.serialize(rejection(endpoints, id, rejectionReason, correlation, TEMPLATE_DATE, token));
+                if (occursOnce(serialized, idPlaceholder) && occursOnce(serialized, correlationPlaceholder) && occursOnce(serialized, issuedPlaceholder)) {
+                    json = serialized;
+                } else {
+                    LOGGER.info("Rejection template for " + rejectionReason + " not usable, serializing rejections as a whole.");
+                }
+            } catch (IOException e) {
+                LOGGER.error(e);
+            }
+        }
+
+        private String render(URI id, URI correlationMessageURI, XMLGregorianCalendar issued) {
+            return json.replace(idPlaceholder, id.toString())
+                    .replace(correlationPlaceholder, correlationMessageURI.toString())
+                    .replace(issuedPlaceholder, issued.toXMLFormat());
+        }
+
+        private boolean occursOnce(String text, String value) {
+            int index = text.indexOf(value);
+            return index >= 0 && text.indexOf(value, index + 1) < 0;
+        }
+    }
+}
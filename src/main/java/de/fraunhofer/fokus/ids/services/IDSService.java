@@ -1,216 +1,102 @@
 package de.fraunhofer.fokus.ids.services;
 
 import de.fraunhofer.fokus.ids.manager.CatalogueManager;
-import de.fraunhofer.fokus.ids.services.authService.AuthAdapterServiceVerticle;
-import de.fraunhofer.fokus.ids.utils.TSConnector;
-import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
+import de.fraunhofer.fokus.ids.services.authService.TokenCache;
+import de.fraunhofer.fokus.ids.utils.BrokerConfiguration;
+import de.fraunhofer.fokus.ids.utils.MultipartResponse;
+import de.fraunhofer.fokus.ids.utils.TripleStore;
 import de.fraunhofer.iais.eis.*;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
-import io.vertx.config.ConfigRetriever;
-import io.vertx.config.ConfigRetrieverOptions;
-import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.*;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import org.apache.http.HttpEntity;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.entity.mime.content.ContentBody;
-import org.apache.http.entity.mime.content.StringBody;
+import io.vertx.core.streams.ReadStream;
 
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
-import javax.xml.datatype.XMLGregorianCalendar;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Function;
 
 public class IDSService {
     private static final String VERSION_NUMBER = "1.0.0";
     private final Logger LOGGER = LoggerFactory.getLogger(IDSService.class.getName());
     private CatalogueManager catalogueManager;
-    private String INFO_MODEL_VERSION = "3.1.0";
+    private String INFO_MODEL_VERSION = IDSResponseFactory.INFO_MODEL_VERSION;
     private String[] SUPPORTED_INFO_MODEL_VERSIONS = {"3.1.0"};
-    private TSConnector tsConnector ;
-    private AuthAdapterService authAdapterService;
-    private Vertx vertx;
+    private TripleStore tripleStore;
+    private TokenCache tokenCache;
+    private BrokerConfiguration brokerConfiguration;
+    private IDSResponseFactory responseFactory;
     private Serializer serializer= new Serializer();
 
-    public IDSService(Vertx vertx , TSConnector tsConnector) {
+    public IDSService(Vertx vertx , TripleStore tripleStore, BrokerConfiguration brokerConfiguration, TokenCache tokenCache) {
         this.catalogueManager = new CatalogueManager(vertx);
-        this.tsConnector = tsConnector;
-        this.vertx = vertx;
-        this.authAdapterService = AuthAdapterService.createProxy(vertx, AuthAdapterServiceVerticle.ADDRESS);
+        this.tripleStore = tripleStore;
+        this.brokerConfiguration = brokerConfiguration;
+        this.tokenCache = tokenCache;
+        this.responseFactory = new IDSResponseFactory(brokerConfiguration);
     }
 
     private void createSucceededMessage(URI correlationMessageURI, Handler<AsyncResult<MessageProcessedNotificationMessage>> resultHandler) {
-        authAdapterService.retrieveToken( tokenReply -> {
-            if(tokenReply.succeeded()){
-                getConfiguration( reply -> {
-                    if(reply.succeeded()) {
-                        try {
-                            MessageProcessedNotificationMessage message = new MessageProcessedNotificationMessageBuilder(new URI(reply.result().getString("baseUrl")+"/MessageProcessedNotification/"+UUID.randomUUID()))
-                                    ._correlationMessage_(correlationMessageURI)
-                                    ._issued_(getDate())
-                                    ._modelVersion_(INFO_MODEL_VERSION)
-                                    ._issuerConnector_(new URI(reply.result().getString("baseUrl")+"#Broker"))
-                                    ._securityToken_(new DynamicAttributeTokenBuilder(new URI(reply.result().getString("baseUrl")+"#DAT"))
-                                            ._tokenFormat_(TokenFormat.JWT)
-                                            ._tokenValue_(tokenReply.result())
-                                            .build())
-                                    .build();
-                            resultHandler.handle(Future.succeededFuture(message));
-                        } catch (URISyntaxException e) {
-                            LOGGER.error(e);
-                            resultHandler.handle(Future.failedFuture(e));
-                        }
-                    } else {
-                        LOGGER.error(reply.cause());
-                        resultHandler.handle(Future.failedFuture(reply.cause()));
-                    }
-                });
-            } else {
-                resultHandler.handle(Future.failedFuture(tokenReply.cause()));
-            }
-        });
+        withToken(token -> responseFactory.succeeded(correlationMessageURI, token), resultHandler);
     }
 
     public void createResultMessage(URI correlationMessageURI, Handler<AsyncResult<ResultMessage>> resultHandler){
-        authAdapterService.retrieveToken( tokenReply -> {
-            if(tokenReply.succeeded()){
-                getConfiguration( reply -> {
-                    if(reply.succeeded()) {
-                        try {
-                            ResultMessage message =  new ResultMessageBuilder(new URI(reply.result().getString("baseUrl")+"/ResultMessage/"+UUID.randomUUID()))
-                                    ._correlationMessage_(correlationMessageURI)
-                                    ._modelVersion_(INFO_MODEL_VERSION)
-                                    ._issued_(getDate())
-                                    ._issuerConnector_(new URI(reply.result().getString("baseUrl")+"#Broker"))
-                                    ._securityToken_(new DynamicAttributeTokenBuilder(new URI(reply.result().getString("baseUrl")+"#DAT"))
-                                            ._tokenFormat_(TokenFormat.JWT)
-                                            ._tokenValue_(tokenReply.result())
-                                            .build())
-                                    .build();
-                            resultHandler.handle(Future.succeededFuture(message));
-                        } catch (URISyntaxException e) {
-                            LOGGER.error(e);
-                            resultHandler.handle(Future.failedFuture(e));
-                        }
-                    } else {
-                        LOGGER.error(reply.cause());
-                        resultHandler.handle(Future.failedFuture(reply.cause()));
-                    }
-                });
-            } else {
-                resultHandler.handle(Future.failedFuture(tokenReply.cause()));
-            }
-        });
+        withToken(token -> responseFactory.result(correlationMessageURI, token), resultHandler);
     }
 
-    private void createRejectionMessage(RejectionReason rejectionReason, URI correlationMessageURI, Handler<AsyncResult<RejectionMessage>> resultHandler) {
-        authAdapterService.retrieveToken( tokenReply -> {
-            if(tokenReply.succeeded()){
-                getConfiguration( reply -> {
-                    if(reply.succeeded()) {
-                        try {
-                            RejectionMessage message = new RejectionMessageBuilder(new URI(reply.result().getString("baseUrl")+"/RejectionMessage/"+UUID.randomUUID()))
-                                    ._correlationMessage_(correlationMessageURI)
-                                    ._issued_(getDate())
-                                    ._modelVersion_(INFO_MODEL_VERSION)
-                                    ._issuerConnector_(new URI(reply.result().getString("baseUrl")+"#Broker"))
-                                    ._securityToken_(new DynamicAttributeTokenBuilder(new URI(reply.result().getString("baseUrl")+"#DAT"))
-                                            ._tokenFormat_(TokenFormat.JWT)
-                                            ._tokenValue_(tokenReply.result())
-                                            .build())
-                                    ._rejectionReason_(rejectionReason)
-                                    .build();
-                            resultHandler.handle(Future.succeededFuture(message));
-                        } catch (URISyntaxException e) {
-                            LOGGER.error(e);
-                            resultHandler.handle(Future.failedFuture(e));
-                        }
-                    } else {
-                        LOGGER.error(reply.cause());
-                        resultHandler.handle(Future.failedFuture(reply.cause()));
-                    }
-                });
-            } else {
-                resultHandler.handle(Future.failedFuture(tokenReply.cause()));
-            }
-        });
+    private void createSelfDescriptionResponse(URI correlationMessageURI, Handler<AsyncResult<Message>> resultHandler) {
+        withToken(token -> responseFactory.descriptionResponse(correlationMessageURI, token), resultHandler);
     }
 
-    private void createSelfDescriptionResponse( JsonObject config, URI correlationMessageURI, Handler<AsyncResult<Message>> resultHandler) {
-        authAdapterService.retrieveToken( tokenReply -> {
+    private <T> void withToken(Function<String, T> builder, Handler<AsyncResult<T>> resultHandler) {
+        tokenCache.retrieveToken( tokenReply -> {
             if(tokenReply.succeeded()){
+                T message;
                 try {
-                    resultHandler.handle(Future.succeededFuture(new DescriptionResponseMessageBuilder(new URI(config.getString("baseUrl")+"/DescriptionResponseMessage/"+UUID.randomUUID()))
-                            ._issued_(getDate())
-                            ._issuerConnector_(new URI(config.getString("baseUrl")+"#Broker"))
-                            ._correlationMessage_(correlationMessageURI)
-                            ._modelVersion_(INFO_MODEL_VERSION)
-                            ._securityToken_(new DynamicAttributeTokenBuilder(new URI(config.getString("baseUrl")+"#DAT"))
-                                    ._tokenFormat_(TokenFormat.JWT)
-                                    ._tokenValue_(tokenReply.result())
-                                    .build())
-                            .build()));
-                } catch (URISyntaxException e) {
+                    message = builder.apply(tokenReply.result());
+                } catch (IllegalArgumentException e) {
                     LOGGER.error(e);
+                    resultHandler.handle(Future.failedFuture(e));
+                    return;
                 }
+                resultHandler.handle(Future.succeededFuture(message));
             } else {
                 resultHandler.handle(Future.failedFuture(tokenReply.cause()));
             }
         });
     }
 
-    private XMLGregorianCalendar getDate() {
-        GregorianCalendar c = new GregorianCalendar();
-        c.setTime(new Date());
-        try {
-            return DatatypeFactory.newInstance().newXMLGregorianCalendar(c);
-        } catch (DatatypeConfigurationException e) {
-            LOGGER.error(e);
-        }
-        return null;
-    }
-
-    public void getSelfDescriptionResponse(URI uri,DescriptionRequestMessage header, Handler<AsyncResult<HttpEntity>> resultHandler) {
-        getConfiguration( reply -> {
-            if (reply.succeeded()) {
-                createSelfDescriptionResponse(reply.result(), uri, selfDescriptionReply -> {
-                    if (selfDescriptionReply.succeeded()) {
-                        if (header.getRequestedElement() != null) {
-                            tsConnector.getGraph(header.getRequestedElement().toString(), asyncResult -> {
-                                if (asyncResult.succeeded()) {
-                                    createMultiPartMessage(uri, selfDescriptionReply.result(), new JsonObject(asyncResult.result()), resultHandler);
-                                } else {
-                                    LOGGER.error(asyncResult.cause());
-                                    handleRejectionMessage(RejectionReason.NOT_FOUND, uri, resultHandler);
-                                }
-                            });
+    public void getSelfDescriptionResponse(URI uri,DescriptionRequestMessage header, Handler<AsyncResult<MultipartResponse>> resultHandler) {
+        JsonObject config = brokerConfiguration.get();
+        createSelfDescriptionResponse(uri, selfDescriptionReply -> {
+            if (selfDescriptionReply.succeeded()) {
+                if (header.getRequestedElement() != null) {
+                    tripleStore.getGraph(header.getRequestedElement().toString(), asyncResult -> {
+                        if (asyncResult.succeeded()) {
+                            createMultiPartMessage(uri, selfDescriptionReply.result(), new JsonObject(asyncResult.result()), resultHandler);
                         } else {
-                            buildBroker(reply.result(), brokerResult -> {
-                                if (brokerResult.succeeded()) {
-                                    createMultiPartMessage(uri, selfDescriptionReply.result(), brokerResult.result(), resultHandler);
-                                } else {
-                                    LOGGER.error(brokerResult.cause());
-                                    resultHandler.handle(Future.failedFuture(brokerResult.cause()));
-                                }
-                            });
+                            LOGGER.error(asyncResult.cause());
+                            handleRejectionMessage(RejectionReason.NOT_FOUND, uri, resultHandler);
                         }
-                    } else {
-                        LOGGER.error("SDR Optional not present.");
-                        resultHandler.handle(Future.failedFuture("SDR Optional not present."));
-                    }
-                });
+                    });
+                } else {
+                    buildBroker(config, brokerResult -> {
+                        if (brokerResult.succeeded()) {
+                            createMultiPartMessage(uri, selfDescriptionReply.result(), brokerResult.result(), resultHandler);
+                        } else {
+                            LOGGER.error(brokerResult.cause());
+                            resultHandler.handle(Future.failedFuture(brokerResult.cause()));
+                        }
+                    });
+                }
             } else {
-                LOGGER.error(reply.cause());
-                resultHandler.handle(Future.failedFuture(reply.cause()));
+                LOGGER.error("SDR Optional not present.");
+                resultHandler.handle(Future.failedFuture("SDR Optional not present."));
             }
         });
     }
@@ -234,7 +120,7 @@ public class IDSService {
 
     private Optional<Broker> createBroker(JsonObject config, ArrayList<URI> connectorURIs){
         try {
-            return Optional.of(new BrokerBuilder(new URI(config.getString("baseUrl")+"#Broker"))
+            return Optional.of(new BrokerBuilder(responseFactory.issuerConnector())
                     ._maintainer_(new URI(config.getString("maintainer")))
                     ._version_(VERSION_NUMBER)
                     ._curator_(new URI(config.getString("curator")))
@@ -267,44 +153,62 @@ public class IDSService {
         });
     }
 
-    public void createMultiPartMessage(URI uri, Object headerObject, Object payloadObject, Handler<AsyncResult<HttpEntity>> resultHandler) {
+    public void createMultiPartMessage(URI uri, Object headerObject, Object payloadObject, Handler<AsyncResult<MultipartResponse>> resultHandler) {
         try {
-            ContentBody contentBody = new StringBody(serializer.serialize(headerObject), ContentType.create("application/json"));
-            ContentBody payload = new StringBody(serializer.serialize(payloadObject), ContentType.create("application/json"));
+            MultipartResponse multipartResponse = new MultipartResponse()
+                    .addPart("header", "application/json", serializer.serialize(headerObject))
+                    .addPart("payload", "application/json", serializer.serialize(payloadObject));
 
-            MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
-                    .setCharset(StandardCharsets.UTF_8)
-                    .setContentType(ContentType.MULTIPART_FORM_DATA)
-                    .addPart("header", contentBody)
-                    .addPart("payload", payload);
+            resultHandler.handle(Future.succeededFuture(multipartResponse));
+        } catch (IOException e) {
+            LOGGER.error(e);
+            handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,uri,resultHandler);
+        }
+    }
 
-            resultHandler.handle(Future.succeededFuture(multipartEntityBuilder.build()));
+    public void createMultiPartMessage(URI uri, Object headerObject, String payloadContentType, Buffer payload, Handler<AsyncResult<MultipartResponse>> resultHandler) {
+        try {
+            MultipartResponse multipartResponse = new MultipartResponse()
+                    .addPart("header", "application/json", serializer.serialize(headerObject))
+                    .addPart("payload", payloadContentType, payload);
+
+            resultHandler.handle(Future.succeededFuture(multipartResponse));
         } catch (IOException e) {
             LOGGER.error(e);
             handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,uri,resultHandler);
         }
     }
 
-    private HttpEntity createMultipartMessage(Message message) {
+    /**
+     * Multipart message whose payload is streamed from the given source instead of being serialized up front.
+     */
+    public void createStreamedMultiPartMessage(URI uri, Object headerObject, String payloadContentType, ReadStream<Buffer> payload, Handler<AsyncResult<MultipartResponse>> resultHandler) {
         try {
-            ContentBody cb = new StringBody(serializer.serialize(message), org.apache.http.entity.ContentType.create("application/json"));
+            MultipartResponse multipartResponse = new MultipartResponse()
+                    .addPart("header", "application/json", serializer.serialize(headerObject))
+                    .addPart("payload", payloadContentType, payload);
 
-            MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
-                    .setCharset(StandardCharsets.UTF_8)
-                    .setContentType(ContentType.MULTIPART_FORM_DATA)
-                    .addPart("header", cb);
+            resultHandler.handle(Future.succeededFuture(multipartResponse));
+        } catch (IOException e) {
+            LOGGER.error(e);
+            handleRejectionMessage(RejectionReason.INTERNAL_RECIPIENT_ERROR,uri,resultHandler);
+        }
+    }
 
-            return multipartEntityBuilder.build();
+    private MultipartResponse createMultipartMessage(Message message) {
+        try {
+            return new MultipartResponse()
+                    .addPart("header", "application/json", serializer.serialize(message));
         } catch (IOException e) {
             LOGGER.error(e);
         }
         return null;
     }
 
-    public void handleSucceededMessage(URI uri, Handler<AsyncResult<HttpEntity>> readyHandler) {
+    public void handleSucceededMessage(URI uri, Handler<AsyncResult<MultipartResponse>> readyHandler) {
         createSucceededMessage(uri, messageProcessedNotificationAsyncResult -> {
             if (messageProcessedNotificationAsyncResult.succeeded()) {
-                HttpEntity buffer = createMultipartMessage(messageProcessedNotificationAsyncResult.result());
+                MultipartResponse buffer = createMultipartMessage(messageProcessedNotificationAsyncResult.result());
                 readyHandler.handle(Future.succeededFuture(buffer));
             } else {
                 readyHandler.handle(Future.failedFuture(messageProcessedNotificationAsyncResult.cause()));
@@ -312,34 +216,20 @@ public class IDSService {
         });
     }
 
-    public void handleRejectionMessage(RejectionReason rejectionReason, URI uri, Handler<AsyncResult<HttpEntity>> readyHandler) {
-        createRejectionMessage(rejectionReason, uri, rejectionMessageAsyncResult -> {
-            if (rejectionMessageAsyncResult.succeeded()) {
-                HttpEntity buffer =  createMultipartMessage(rejectionMessageAsyncResult.result());
-                readyHandler.handle(Future.succeededFuture(buffer));
-            } else {
-                readyHandler.handle(Future.failedFuture(rejectionMessageAsyncResult.cause()));
-            }
-        });
-    }
-
-
-    private void getConfiguration(Handler<AsyncResult<JsonObject>> resultHandler){
-
-        ConfigStoreOptions confStore = new ConfigStoreOptions()
-                .setType("env");
-
-        ConfigRetrieverOptions options = new ConfigRetrieverOptions().addStore(confStore);
-
-        ConfigRetriever retriever = ConfigRetriever.create(vertx, options);
-
-        retriever.getConfig(config -> {
-            if(config.succeeded()){
-                resultHandler.handle(Future.succeededFuture(config.result().getJsonObject("BROKER_CONFIG")));
+    public void handleRejectionMessage(RejectionReason rejectionReason, URI uri, Handler<AsyncResult<MultipartResponse>> readyHandler) {
+        tokenCache.retrieveToken( tokenReply -> {
+            if (tokenReply.succeeded()) {
+                try {
+                    readyHandler.handle(Future.succeededFuture(new MultipartResponse()
+                            .addPart("header", "application/json", responseFactory.serializedRejection(rejectionReason, uri, tokenReply.result()))));
+                } catch (IOException | IllegalArgumentException e) {
+                    LOGGER.error(e);
+                    readyHandler.handle(Future.failedFuture(e));
+                }
             } else {
-                resultHandler.handle(Future.failedFuture(config.cause()));
+                readyHandler.handle(Future.failedFuture(tokenReply.cause()));
             }
         });
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package de.fraunhofer.fokus.ids.services.authService;
+
+import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the broker's current DAT so outgoing messages do not wait for the DAPS. The token is refreshed in the
+ * background shortly before it expires; concurrent refreshes are coalesced into a single request. If a refresh fails
+ * the current token is served as long as it is valid and the refresh is retried.
+ */
+public class TokenCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(TokenCache.class.getName());
+
+    private static final long DEFAULT_REFRESH_MARGIN = 60 * 1000L;
+    private static final long DEFAULT_TOKEN_LIFETIME = 5 * 60 * 1000L;
+    private static final long DEFAULT_RETRY_INTERVAL = 10 * 1000L;
+
+    private Vertx vertx;
+    private AuthAdapterService authAdapterService;
+    private long refreshMargin;
+    private long defaultLifetime;
+    private long retryInterval;
+
+    private volatile String token;
+    private volatile long expiresAt;
+    private Promise<String> pendingRefresh;
+    private long refreshTimer = -1;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    /**
+     * @param config refreshMargin: refresh this many ms before expiry, tokenLifetime: assumed lifetime in ms of tokens
+     *               without an exp claim, retryInterval: delay in ms before retrying a failed refresh
+     */
+    public TokenCache(Vertx vertx, AuthAdapterService authAdapterService, JsonObject config){
+        this.vertx = vertx;
+        this.authAdapterService = authAdapterService;
+        this.refreshMargin = config.getLong("refreshMargin", DEFAULT_REFRESH_MARGIN);
+        this.defaultLifetime = config.getLong("tokenLifetime", DEFAULT_TOKEN_LIFETIME);
+        this.retryInterval = config.getLong("retryInterval", DEFAULT_RETRY_INTERVAL);
+    }
+
+    public void retrieveToken(Handler<AsyncResult<String>> resultHandler){
+        String current = token;
+        if (current != null && System.currentTimeMillis() < expiresAt) {
+            hits.incrementAndGet();
+            resultHandler.handle(Future.succeededFuture(current));
+        } else {
+            misses.incrementAndGet();
+            refresh(resultHandler);
+        }
+    }
+
+    public JsonObject metrics(){
+        return new JsonObject()
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("refreshes", refreshes.get())
+                .put("refreshFailures", refreshFailures.get())
+                .put("expiresAt", expiresAt);
+    }
+
+    private synchronized void refresh(Handler<AsyncResult<String>> resultHandler){
+        if (pendingRefresh != null) {
+            pendingRefresh.future().setHandler(resultHandler);
+            return;
+        }
+        Promise<String> refresh = Promise.promise();
+        pendingRefresh = refresh;
+        refresh.future().setHandler(resultHandler);
+
+        authAdapterService.retrieveToken(reply -> {
+            if (reply.succeeded()) {
+                long now = System.currentTimeMillis();
+                long expiry = expiry(reply.result(), now);
+                synchronized (this) {
+                    token = reply.result();
+                    expiresAt = expiry;
+                    pendingRefresh = null;
+                }
+                refreshes.incrementAndGet();
+                if (expiry <= now + refreshMargin) {
+                    LOGGER.warn("DAT expires " + (expiry - now) + " ms after retrieval, within the refresh margin of " + refreshMargin
+                            + " ms. The clocks of broker and DAPS may be skewed. Refreshing again in " + retryInterval + " ms.");
+                    scheduleRefresh(retryInterval);
+                } else {
+                    scheduleRefresh(Math.max(expiry - refreshMargin - now, (expiry - now) / 2));
+                }
+                refresh.complete(reply.result());
+            } else {
+                refreshFailures.incrementAndGet();
+                String current;
+                synchronized (this) {
+                    pendingRefresh = null;
+                    current = System.currentTimeMillis() < expiresAt ? token : null;
+                }
+                scheduleRefresh(retryInterval);
+                if (current != null) {
+                    LOGGER.info("DAT refresh failed, serving current token. " + reply.cause().getMessage());
+                    refresh.complete(current);
+                } else {
+                    LOGGER.error("DAT could not be retrieved.", reply.cause());
+                    refresh.fail(reply.cause());
+                }
+            }
+        });
+    }
+
+    private synchronized void scheduleRefresh(long delay){
+        if (refreshTimer != -1) {
+            vertx.cancelTimer(refreshTimer);
+        }
+        refreshTimer = vertx.setTimer(Math.max(1, delay), id -> {
+            synchronized (this) {
+                refreshTimer = -1;
+            }
+            refresh(ar -> {});
+        });
+    }
+
+    /**
+     * Expiry from the exp claim of the JWT; tokens without a readable claim are assumed to live the default lifetime.
+     */
+    private long expiry(String jwt, long now){
+        try {
+            String[] parts = jwt.split("\\.");
+            if (parts.length > 1) {
+                JsonObject claims = new JsonObject(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+                Long exp = claims.getLong("exp");
+                if (exp != null) {
+                    return exp * 1000L;
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.info("DAT expiry could not be read. " + e.getMessage());
+        }
+        return now + defaultLifetime;
+    }
+}
@@ -0,0 +1,251 @@
+package de.fraunhofer.fokus.ids.services.authService;
+
+import de.fraunhofer.fokus.ids.utils.services.authService.AuthAdapterService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.WebClient;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Authenticates the security tokens of incoming messages. Tokens that were verified once are remembered by their
+ * fingerprint until their exp claim, so repeated messages carrying the same DAT do not go to the auth adapter again.
+ * Optionally, RSA signed tokens are verified locally against the DAPS JWKS, which is fetched and refreshed
+ * periodically; besides the signature, the configured issuer and audience and the token's validity period are checked.
+ * Tokens that cannot be verified locally, including tokens that are no JWT, are passed to the auth adapter.
+ */
+public class TokenVerifier {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(TokenVerifier.class.getName());
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final long DEFAULT_TOKEN_LIFETIME = 60 * 1000L;
+    private static final long DEFAULT_JWKS_REFRESH_INTERVAL = 60 * 60 * 1000L;
+    private static final String DEFAULT_AUDIENCE = "idsc:IDS_CONNECTORS_ALL";
+    private static final Map<String, String> SIGNATURE_ALGORITHMS = new HashMap<>();
+
+    static {
+        SIGNATURE_ALGORITHMS.put("RS256", "SHA256withRSA");
+        SIGNATURE_ALGORITHMS.put("RS384", "SHA384withRSA");
+        SIGNATURE_ALGORITHMS.put("RS512", "SHA512withRSA");
+    }
+
+    private AuthAdapterService authAdapterService;
+    private WebClient webClient;
+    private long defaultLifetime;
+    private String jwksUrl;
+    private String issuer;
+    private String audience;
+
+    private final Map<String, Long> verifiedTokens;
+    private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong localVerifications = new AtomicLong();
+    private final AtomicLong remoteVerifications = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param config maxEntries: number of remembered tokens, tokenLifetime: time in ms tokens without exp claim are
+     *               remembered, jwksUrl: enables local signature verification, jwksRefreshInterval: in ms, issuer:
+     *               the DAPS issuer (iss) locally verified tokens must carry, required for local verification,
+     *               audience: the audience (aud) locally verified tokens must carry
+     */
+    public TokenVerifier(Vertx vertx, AuthAdapterService authAdapterService, WebClient webClient, JsonObject config){
+        this.authAdapterService = authAdapterService;
+        this.webClient = webClient;
+        this.defaultLifetime = config.getLong("tokenLifetime", DEFAULT_TOKEN_LIFETIME);
+        this.jwksUrl = config.getString("jwksUrl");
+        this.issuer = config.getString("issuer");
+        this.audience = config.getString("audience", DEFAULT_AUDIENCE);
+        if (jwksUrl != null && issuer == null) {
+            LOGGER.error("No issuer configured, local security token verification disabled.");
+            jwksUrl = null;
+        }
+        int maxEntries = config.getInteger("maxEntries", DEFAULT_MAX_ENTRIES);
+        this.verifiedTokens = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        if (jwksUrl != null) {
+            loadKeys();
+            long refreshInterval = config.getLong("jwksRefreshInterval", DEFAULT_JWKS_REFRESH_INTERVAL);
+            if (refreshInterval > 0) {
+                vertx.setPeriodic(refreshInterval, id -> loadKeys());
+            }
+        }
+    }
+
+    public void isAuthenticated(String token, Handler<AsyncResult<Void>> resultHandler){
+        if (token == null) {
+            rejections.incrementAndGet();
+            resultHandler.handle(Future.failedFuture("No security token present."));
+            return;
+        }
+        String fingerprint = DigestUtils.sha256Hex(token);
+        long now = System.currentTimeMillis();
+        synchronized (verifiedTokens) {
+            Long expiresAt = verifiedTokens.get(fingerprint);
+            if (expiresAt != null) {
+                if (now < expiresAt) {
+                    hits.incrementAndGet();
+                    resultHandler.handle(Future.succeededFuture());
+                    return;
+                }
+                verifiedTokens.remove(fingerprint);
+            }
+        }
+        misses.incrementAndGet();
+
+        JsonObject claims = claims(token);
+        Long exp = claims != null ? claims.getLong("exp") : null;
+        long expiresAt = exp != null ? exp * 1000L : now + defaultLifetime;
+
+        AsyncResult<Void> verified = claims != null ? verifyLocally(token, claims, now) : null;
+        if (verified != null) {
+            localVerifications.incrementAndGet();
+            if (verified.succeeded()) {
+                remember(fingerprint, expiresAt);
+            } else {
+                rejections.incrementAndGet();
+            }
+            resultHandler.handle(verified);
+            return;
+        }
+
+        remoteVerifications.incrementAndGet();
+        authAdapterService.isAuthenticated(token, reply -> {
+            if (reply.succeeded()) {
+                remember(fingerprint, expiresAt);
+            } else {
+                rejections.incrementAndGet();
+            }
+            resultHandler.handle(reply);
+        });
+    }
+
+    public JsonObject metrics(){
+        JsonObject metrics = new JsonObject()
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("localVerifications", localVerifications.get())
+                .put("remoteVerifications", remoteVerifications.get())
+                .put("rejections", rejections.get())
+                .put("keys", keys.size());
+        synchronized (verifiedTokens) {
+            metrics.put("entries", verifiedTokens.size());
+        }
+        return metrics;
+    }
+
+    private void remember(String fingerprint, long expiresAt){
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        synchronized (verifiedTokens) {
+            verifiedTokens.put(fingerprint, expiresAt);
+        }
+    }
+
+    /**
+     * @return the result of the signature, issuer, audience and validity checks, or null if the token cannot be
+     * verified locally (disabled, unsupported algorithm or unknown key)
+     */
+    private AsyncResult<Void> verifyLocally(String token, JsonObject claims, long now){
+        if (jwksUrl == null) {
+            return null;
+        }
+        try {
+            String[] parts = token.split("\\.");
+            JsonObject header = new JsonObject(new String(Base64.getUrlDecoder().decode(parts[0]), StandardCharsets.UTF_8));
+            String algorithm = SIGNATURE_ALGORITHMS.get(header.getString("alg"));
+            PublicKey key = keys.get(header.getString("kid", ""));
+            if (algorithm == null || key == null || parts.length != 3) {
+                return null;
+            }
+            Signature signature = Signature.getInstance(algorithm);
+            signature.initVerify(key);
+            signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!signature.verify(Base64.getUrlDecoder().decode(parts[2]))) {
+                return Future.failedFuture("Invalid security token signature.");
+            }
+            if (!issuer.equals(claims.getString("iss"))) {
+                return Future.failedFuture("Security token issuer not accepted.");
+            }
+            Object aud = claims.getValue("aud");
+            if (!(aud instanceof JsonArray ? ((JsonArray) aud).contains(audience) : audience.equals(aud))) {
+                return Future.failedFuture("Security token audience not accepted.");
+            }
+            Long exp = claims.getLong("exp");
+            if (exp == null || exp * 1000L <= now) {
+                return Future.failedFuture("Security token expired.");
+            }
+            Long nbf = claims.getLong("nbf");
+            if (nbf != null && nbf * 1000L > now) {
+                return Future.failedFuture("Security token not yet valid.");
+            }
+            return Future.succeededFuture();
+        } catch (Exception e) {
+            LOGGER.info("Security token could not be verified locally. " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the claims of a JWT, or null if the token is no JWT; such tokens are left to the auth adapter
+     */
+    private JsonObject claims(String token){
+        String[] parts = token.split("\\.");
+        if (parts.length < 2) {
+            return null;
+        }
+        try {
+            return new JsonObject(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void loadKeys(){
+        webClient.getAbs(jwksUrl).send(ar -> {
+            if (ar.succeeded() && ar.result().statusCode() == 200) {
+                try {
+                    Map<String, PublicKey> loaded = new HashMap<>();
+                    KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+                    JsonArray jwks = ar.result().bodyAsJsonObject().getJsonArray("keys", new JsonArray());
+                    for (Object entry : jwks) {
+                        JsonObject jwk = (JsonObject) entry;
+                        if ("RSA".equals(jwk.getString("kty")) && jwk.containsKey("n") && jwk.containsKey("e")) {
+                            BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(jwk.getString("n")));
+                            BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(jwk.getString("e")));
+                            loaded.put(jwk.getString("kid", ""), keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+                        }
+                    }
+                    keys = Collections.unmodifiableMap(loaded);
+                    LOGGER.info(loaded.size() + " JWKS keys loaded from " + jwksUrl);
+                } catch (Exception e) {
+                    LOGGER.error("JWKS could not be parsed.", e);
+                }
+            } else {
+                LOGGER.error("JWKS could not be loaded from " + jwksUrl + ". " + (ar.succeeded() ? ar.result().statusCode() : ar.cause().getMessage()));
+            }
+        });
+    }
+}
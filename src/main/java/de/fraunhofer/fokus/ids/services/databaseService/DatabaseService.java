@@ -10,6 +10,7 @@ import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.SQLClient;
+import io.vertx.pgclient.PgPool;
 
 import java.util.List;
 
@@ -28,11 +29,51 @@ public interface DatabaseService {
     @Fluent
     DatabaseService update(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler);
 
+    /**
+     * Execute the statement once per parameter row within a single transaction.
+     */
+    @Fluent
+    DatabaseService batchUpdate(String query, List<JsonArray> params, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+    /**
+     * Execute the statements one after another, each with the params at its index, within a single transaction.
+     */
+    @Fluent
+    DatabaseService updateAll(List<String> queries, List<JsonArray> params, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+    /**
+     * Insert all rows with multi-row inserts within a single transaction. The VALUES row of query is repeated once per
+     * row, up to 1000 values per statement.
+     */
+    @Fluent
+    DatabaseService insertAll(String query, List<JsonArray> rows, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+    /**
+     * Query with an "IN (?)" clause which is expanded to one placeholder per element of values. params are bound
+     * before the values. Large value lists are split into several statements.
+     */
+    @Fluent
+    DatabaseService queryIn(String query, JsonArray params, JsonArray values, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+    /**
+     * Update with an "IN (?)" clause, expanded and split like the one of queryIn.
+     */
+    @Fluent
+    DatabaseService updateIn(String query, JsonArray params, JsonArray values, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+    @Fluent
+    DatabaseService metrics(Handler<AsyncResult<JsonObject>> resultHandler);
+
     @GenIgnore
     static DatabaseService create(SQLClient dbClient, Handler<AsyncResult<DatabaseService>> readyHandler) {
         return new DatabaseServiceImpl(dbClient, readyHandler);
     }
 
+    @GenIgnore
+    static DatabaseService createPooled(PgPool pool, JsonObject config, Handler<AsyncResult<DatabaseService>> readyHandler) {
+        return new PooledDatabaseServiceImpl(pool, config, readyHandler);
+    }
+
     @GenIgnore
     static DatabaseService createProxy(Vertx vertx, String address) {
         return new DatabaseServiceVertxEBProxy(vertx, address);
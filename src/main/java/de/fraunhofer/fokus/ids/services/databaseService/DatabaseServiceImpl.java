@@ -13,6 +13,7 @@ import io.vertx.ext.sql.SQLConnection;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Vincent Bohlen, vincent.bohlen@fokus.fraunhofer.de
@@ -20,6 +21,10 @@ import java.util.List;
 public class DatabaseServiceImpl implements DatabaseService {
     private Logger LOGGER = LoggerFactory.getLogger(DatabaseServiceImpl.class.getName());
     private SQLClient jdbc;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong latencyTotal = new AtomicLong();
+    private final AtomicLong latencyMax = new AtomicLong();
 
     public enum ConnectionType{
         QUERY,
@@ -42,6 +47,64 @@ public class DatabaseServiceImpl implements DatabaseService {
         return this;
     }
 
+    @Override
+    public DatabaseService batchUpdate(String query, List<JsonArray> params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        List<Statement> statements = new ArrayList<>(params.size());
+        params.forEach(row -> statements.add(new Statement(query, row)));
+        createConnection(connection -> handleBatch(connection, statements, resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService updateAll(List<String> queries, List<JsonArray> params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        List<Statement> statements;
+        try {
+            statements = Statement.statements(queries, params);
+        } catch (IllegalArgumentException e) {
+            resultHandler.handle(Future.failedFuture(e));
+            return this;
+        }
+        createConnection(connection -> handleBatch(connection, statements, resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService insertAll(String query, List<JsonArray> rows, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        List<Statement> statements;
+        try {
+            statements = ValuesClause.statements(query, rows);
+        } catch (IllegalArgumentException e) {
+            resultHandler.handle(Future.failedFuture(e));
+            return this;
+        }
+        createConnection(connection -> handleBatch(connection, statements, resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService queryIn(String query, JsonArray params, JsonArray values, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        InClause.query(query, params, values, this::query, resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService updateIn(String query, JsonArray params, JsonArray values, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        InClause.query(query, params, values, this::update, resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService metrics(Handler<AsyncResult<JsonObject>> resultHandler) {
+        long count = queries.get();
+        resultHandler.handle(Future.succeededFuture(new JsonObject()
+                .put("mode", "shared")
+                .put("queries", count)
+                .put("failures", failures.get())
+                .put("queryLatencyAvgMs", count == 0 ? 0 : latencyTotal.get() / count / 1000000.0)
+                .put("queryLatencyMaxMs", latencyMax.get() / 1000000.0)));
+        return this;
+    }
+
     /**
      * processing pipeline to create the intended result
      * @param queryString SQL Query to perform
@@ -49,15 +112,25 @@ public class DatabaseServiceImpl implements DatabaseService {
      * @param connectionType UPDATE or QUERY depending on the type of database manipulation to be performed
      */
     private void createResult(String queryString, JsonArray params, ConnectionType connectionType, Handler<AsyncResult<List<JsonObject>>> resultHandler){
-
+        long start = System.nanoTime();
+        Handler<AsyncResult<List<JsonObject>>> measuredHandler = result -> {
+            long latency = System.nanoTime() - start;
+            queries.incrementAndGet();
+            latencyTotal.addAndGet(latency);
+            latencyMax.accumulateAndGet(latency, Math::max);
+            if (result.failed()) {
+                failures.incrementAndGet();
+            }
+            resultHandler.handle(result);
+        };
         createConnection(connection -> handleConnection(connection,
                 connectionType,
                 queryString,
                 params,
                 result -> handleResult(result,
-                        resultHandler
+                        measuredHandler
                 ),
-                resultHandler));
+                measuredHandler));
     }
 
     /**
@@ -168,6 +241,66 @@ public class DatabaseServiceImpl implements DatabaseService {
         }
     }
 
+    /**
+     * Method to perform the SQL updates one after another in one transaction on the connection retrieved via createConnection
+     * @param result Connection future produced by createConnection
+     * @param statements SQL Strings to execute with their params
+     */
+    private void handleBatch(AsyncResult<SQLConnection> result,
+                             List<Statement> statements,
+                             Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+
+        if(result.failed()){
+            LOGGER.error("Connection Future failed.", result.cause());
+            resultHandler.handle(Future.failedFuture(result.cause().toString()));
+        }
+        else {
+            SQLConnection connection = result.result();
+            connection.setAutoCommit(false, autoCommit -> {
+                if (autoCommit.succeeded()) {
+                    updateSequentially(connection, statements, 0, batch -> {
+                        if (batch.succeeded()) {
+                            connection.commit(commit -> {
+                                if (commit.succeeded()) {
+                                    LOGGER.info("No. of rows updated in batch: " + batch.result());
+                                    resultHandler.handle(Future.succeededFuture(new ArrayList<>()));
+                                } else {
+                                    LOGGER.error("Commit failed.", commit.cause());
+                                    resultHandler.handle(Future.failedFuture(commit.cause()));
+                                }
+                                connection.close();
+                            });
+                        } else {
+                            LOGGER.error("Batch update failed.", batch.cause());
+                            connection.rollback(rollback -> {
+                                resultHandler.handle(Future.failedFuture(batch.cause()));
+                                connection.close();
+                            });
+                        }
+                    });
+                } else {
+                    LOGGER.error("Transaction could not be started.", autoCommit.cause());
+                    resultHandler.handle(Future.failedFuture(autoCommit.cause()));
+                    connection.close();
+                }
+            });
+        }
+    }
+
+    private void updateSequentially(SQLConnection connection, List<Statement> statements, int updated, Handler<AsyncResult<Integer>> next) {
+        if (statements.isEmpty()) {
+            next.handle(Future.succeededFuture(updated));
+            return;
+        }
+        connection.updateWithParams(statements.get(0).query, statements.get(0).params, update -> {
+            if (update.succeeded()) {
+                updateSequentially(connection, statements.subList(1, statements.size()), updated + update.result().getUpdated(), next);
+            } else {
+                next.handle(Future.failedFuture(update.cause()));
+            }
+        });
+    }
+
     /**
      * Process the SQL ResultSet (as List<JSONObject>) and reply the results via receivedMessage
      * @param result SQL ResultSet as List<JsonObject>
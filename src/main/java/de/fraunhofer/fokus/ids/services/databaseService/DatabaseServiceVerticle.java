@@ -4,12 +4,17 @@ import io.vertx.config.ConfigRetriever;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.asyncsql.PostgreSQLClient;
 import io.vertx.ext.sql.SQLClient;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.PoolOptions;
 import io.vertx.serviceproxy.ServiceBinder;
 
 /**
@@ -33,8 +38,7 @@ public class DatabaseServiceVerticle extends AbstractVerticle {
             if (ar.succeeded()) {
                 JsonObject config = ar.result().getJsonObject("DB_CONFIG");
 
-                SQLClient jdbc = PostgreSQLClient.createShared(vertx, config);
-                DatabaseService.create(jdbc, ready -> {
+                Handler<AsyncResult<DatabaseService>> readyHandler = ready -> {
                     if (ready.succeeded()) {
                         ServiceBinder binder = new ServiceBinder(vertx);
                         binder
@@ -46,11 +50,33 @@ public class DatabaseServiceVerticle extends AbstractVerticle {
                         LOGGER.error(ready.cause());
                         startPromise.fail(ready.cause());
                     }
-                });
+                };
+                if ("pooled".equals(config.getString("mode"))) {
+                    DatabaseService.createPooled(createPool(config), config, readyHandler);
+                } else {
+                    SQLClient jdbc = PostgreSQLClient.createShared(vertx, config);
+                    DatabaseService.create(jdbc, readyHandler);
+                }
             } else {
                 startPromise.fail(ar.cause());
                 LOGGER.error("Config could not be retrieved.");
             }
         });
     }
+
+    private PgPool createPool(JsonObject config) {
+        PgConnectOptions connectOptions = new PgConnectOptions()
+                .setHost(config.getString("host", "localhost"))
+                .setPort(config.getInteger("port", 5432))
+                .setDatabase(config.getString("database"))
+                .setUser(config.getString("username"))
+                .setPassword(config.getString("password"))
+                .setCachePreparedStatements(true)
+                .setPreparedStatementCacheMaxSize(config.getInteger("preparedStatementCacheMaxSize", 64))
+                .setPipeliningLimit(config.getInteger("pipeliningLimit", 16));
+        PoolOptions poolOptions = new PoolOptions()
+                .setMaxSize(config.getInteger("maxPoolSize", 10))
+                .setMaxWaitQueueSize(config.getInteger("maxWaitQueueSize", -1));
+        return PgPool.pool(vertx, connectOptions, poolOptions);
+    }
 }
@@ -0,0 +1,66 @@
+package de.fraunhofer.fokus.ids.services.databaseService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expands the "IN (?)" clause of a statement to the number of values and splits large value lists into chunks.
+ */
+final class InClause {
+
+    static final String PLACEHOLDER = "IN (?)";
+    static final int CHUNK_SIZE = 1000;
+
+    interface Query {
+        void execute(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+    }
+
+    private InClause() {
+    }
+
+    static void query(String query, JsonArray params, JsonArray values,
+                      Query queryHandler, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        int index = query.lastIndexOf(PLACEHOLDER);
+        if (index == -1) {
+            resultHandler.handle(Future.failedFuture("Statement does not contain " + PLACEHOLDER));
+            return;
+        }
+        if (values.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture(new ArrayList<>()));
+            return;
+        }
+        List<Future> chunks = new ArrayList<>();
+        for (int start = 0; start < values.size(); start += CHUNK_SIZE) {
+            int end = Math.min(start + CHUNK_SIZE, values.size());
+            StringBuilder placeholders = new StringBuilder("IN (");
+            JsonArray chunkParams = params == null ? new JsonArray() : params.copy();
+            for (int i = start; i < end; i++) {
+                placeholders.append(i == start ? "?" : ",?");
+                chunkParams.add(values.getValue(i));
+            }
+            placeholders.append(')');
+            Promise<List<JsonObject>> chunk = Promise.promise();
+            chunks.add(chunk.future());
+            queryHandler.execute(query.substring(0, index) + placeholders + query.substring(index + PLACEHOLDER.length()), chunkParams, chunk);
+        }
+        CompositeFuture.all(chunks).setHandler(ac -> {
+            if (ac.succeeded()) {
+                List<JsonObject> rows = new ArrayList<>();
+                for (int i = 0; i < chunks.size(); i++) {
+                    rows.addAll(ac.result().<List<JsonObject>>resultAt(i));
+                }
+                resultHandler.handle(Future.succeededFuture(rows));
+            } else {
+                resultHandler.handle(Future.failedFuture(ac.cause()));
+            }
+        });
+    }
+}
@@ -0,0 +1,371 @@
+package de.fraunhofer.fokus.ids.services.databaseService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Transaction;
+import io.vertx.sqlclient.Tuple;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * DatabaseService backed by a reused PgPool. Statements are executed as server side prepared statements which are
+ * cached per connection and SQL string. Up to pipeliningLimit queued statements are pipelined on one connection, so
+ * bursts of small lookups share a connection instead of each acquiring their own.
+ */
+public class PooledDatabaseServiceImpl implements DatabaseService {
+    private Logger LOGGER = LoggerFactory.getLogger(PooledDatabaseServiceImpl.class.getName());
+    private PgPool pool;
+    private int maxPoolSize;
+    private int pipeliningLimit;
+
+    private final Map<String, String> statements = new ConcurrentHashMap<>();
+    private final Deque<Command> pending = new ArrayDeque<>();
+    private int acquiring;
+    private int beginning;
+    private int inUse;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong waitTotal = new AtomicLong();
+    private final AtomicLong waitMax = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong latencyTotal = new AtomicLong();
+    private final AtomicLong latencyMax = new AtomicLong();
+    private final AtomicLong saturated = new AtomicLong();
+
+    public PooledDatabaseServiceImpl(PgPool pool, JsonObject config, Handler<AsyncResult<DatabaseService>> readyHandler){
+        this.pool = pool;
+        this.maxPoolSize = config.getInteger("maxPoolSize", 10);
+        this.pipeliningLimit = Math.max(1, config.getInteger("pipeliningLimit", 16));
+        readyHandler.handle(Future.succeededFuture(this));
+    }
+
+    @Override
+    public DatabaseService query(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        schedule(new Command(connection -> execute(connection, query, params).map(this::toJson), resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService update(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        schedule(new Command(connection -> execute(connection, query, params).map(rows -> {
+            LOGGER.info("No. of rows updated: " + rows.rowCount());
+            return (List<JsonObject>) new ArrayList<JsonObject>();
+        }), resultHandler));
+        return this;
+    }
+
+    /**
+     * Batches run in their own transaction and therefore on a dedicated connection instead of a pipelined one.
+     */
+    @Override
+    public DatabaseService batchUpdate(String query, List<JsonArray> params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        List<Tuple> tuples = new ArrayList<>(params.size());
+        for (JsonArray row : params) {
+            tuples.add(toTuple(row));
+        }
+        transaction(tuples.isEmpty(), transaction -> {
+            Promise<RowSet<Row>> batch = Promise.promise();
+            transaction.preparedQuery(statement(query)).executeBatch(tuples, batch);
+            return batch.future().map(rows -> tuples.size());
+        }, resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService insertAll(String query, List<JsonArray> rows, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        List<Statement> statements;
+        try {
+            statements = ValuesClause.statements(query, rows);
+        } catch (IllegalArgumentException e) {
+            complete(new Command(null, resultHandler), Future.failedFuture(e));
+            return this;
+        }
+        transaction(statements.isEmpty(), transaction -> executeSequentially(transaction, statements), resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService updateAll(List<String> queries, List<JsonArray> params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        List<Statement> statements;
+        try {
+            statements = Statement.statements(queries, params);
+        } catch (IllegalArgumentException e) {
+            complete(new Command(null, resultHandler), Future.failedFuture(e));
+            return this;
+        }
+        transaction(statements.isEmpty(), transaction -> executeSequentially(transaction, statements), resultHandler);
+        return this;
+    }
+
+    private Future<Integer> executeSequentially(Transaction transaction, List<Statement> statements) {
+        Future<Integer> executed = Future.succeededFuture(0);
+        for (Statement next : statements) {
+            executed = executed.compose(count -> {
+                Promise<RowSet<Row>> promise = Promise.promise();
+                transaction.preparedQuery(statement(next.query)).execute(toTuple(next.params), promise);
+                return promise.future().map(rows -> count + 1);
+            });
+        }
+        return executed;
+    }
+
+    @Override
+    public DatabaseService queryIn(String query, JsonArray params, JsonArray values, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        InClause.query(query, params, values, this::query, resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService updateIn(String query, JsonArray params, JsonArray values, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        InClause.query(query, params, values, this::update, resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService metrics(Handler<AsyncResult<JsonObject>> resultHandler) {
+        long count = queries.get();
+        long acquired = acquisitions.get();
+        JsonObject metrics = new JsonObject()
+                .put("mode", "pooled")
+                .put("maxPoolSize", maxPoolSize)
+                .put("pipeliningLimit", pipeliningLimit)
+                .put("queries", count)
+                .put("failures", failures.get())
+                .put("queryLatencyAvgMs", count == 0 ? 0 : latencyTotal.get() / count / 1000000.0)
+                .put("queryLatencyMaxMs", latencyMax.get() / 1000000.0)
+                .put("acquisitions", acquired)
+                .put("waitAvgMs", acquired == 0 ? 0 : waitTotal.get() / acquired / 1000000.0)
+                .put("waitMaxMs", waitMax.get() / 1000000.0)
+                .put("saturatedAcquisitions", saturated.get())
+                .put("preparedStatements", statements.size());
+        synchronized (this) {
+            metrics.put("connectionsInUse", inUse)
+                    .put("connectionsPending", acquiring + beginning)
+                    .put("queuedStatements", pending.size())
+                    .put("saturation", (double) inUse / maxPoolSize);
+        }
+        resultHandler.handle(Future.succeededFuture(metrics));
+        return this;
+    }
+
+    /**
+     * Queue a command and acquire another connection only if the connections already being acquired cannot take it
+     * within the pipelining limit.
+     */
+    private synchronized void schedule(Command command) {
+        pending.add(command);
+        if (pending.size() > acquiring * pipeliningLimit) {
+            acquire();
+        }
+    }
+
+    private void acquire() {
+        acquiring++;
+        if (inUse + acquiring + beginning > maxPoolSize) {
+            saturated.incrementAndGet();
+        }
+        long start = System.nanoTime();
+        pool.getConnection(ar -> {
+            waited(start);
+            List<Command> batch = new ArrayList<>();
+            synchronized (this) {
+                acquiring--;
+                int size = ar.succeeded() ? pipeliningLimit : 1;
+                while (batch.size() < size && !pending.isEmpty()) {
+                    batch.add(pending.poll());
+                }
+                if (ar.succeeded()) {
+                    inUse++;
+                }
+                if (pending.size() > acquiring * pipeliningLimit) {
+                    acquire();
+                }
+            }
+            if (ar.failed()) {
+                LOGGER.error("Connection could not be established.", ar.cause());
+                batch.forEach(command -> complete(command, Future.failedFuture(ar.cause())));
+            } else {
+                run(ar.result(), batch);
+            }
+        });
+    }
+
+    private void run(SqlConnection connection, List<Command> batch) {
+        if (batch.isEmpty()) {
+            release(connection);
+            return;
+        }
+        int[] outstanding = {batch.size()};
+        for (Command command : batch) {
+            command.operation.apply(connection).setHandler(result -> {
+                complete(command, result);
+                if (--outstanding[0] == 0) {
+                    release(connection);
+                }
+            });
+        }
+    }
+
+    private void release(SqlClient connection) {
+        connection.close();
+        synchronized (this) {
+            inUse--;
+        }
+    }
+
+    private void waited(long start) {
+        long wait = System.nanoTime() - start;
+        acquisitions.incrementAndGet();
+        waitTotal.addAndGet(wait);
+        waitMax.accumulateAndGet(wait, Math::max);
+    }
+
+    /**
+     * Run the statements of work in one transaction on a connection of its own and commit them, or roll them back if
+     * one fails. Its connection is counted like the ones acquired for queued commands, but kept apart from them, as it
+     * cannot take any of those.
+     * @param empty whether work has nothing to execute, which completes without taking a connection
+     * @param work statements to execute, completed with the number of statements executed
+     */
+    private void transaction(boolean empty, Function<Transaction, Future<Integer>> work, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        Command command = new Command(null, resultHandler);
+        if (empty) {
+            complete(command, Future.succeededFuture(new ArrayList<>()));
+            return;
+        }
+        synchronized (this) {
+            beginning++;
+            if (inUse + acquiring + beginning > maxPoolSize) {
+                saturated.incrementAndGet();
+            }
+        }
+        long start = System.nanoTime();
+        pool.begin(begin -> {
+            waited(start);
+            synchronized (this) {
+                beginning--;
+                if (begin.succeeded()) {
+                    inUse++;
+                }
+            }
+            if (begin.failed()) {
+                LOGGER.error("Transaction could not be started.", begin.cause());
+                complete(command, Future.failedFuture(begin.cause()));
+                return;
+            }
+            Transaction transaction = begin.result();
+            work.apply(transaction).setHandler(executed -> {
+                if (executed.succeeded()) {
+                    transaction.commit(commit -> {
+                        if (commit.succeeded()) {
+                            LOGGER.info("No. of statements executed in transaction: " + executed.result());
+                            complete(command, Future.succeededFuture(new ArrayList<>()));
+                        } else {
+                            complete(command, Future.failedFuture(commit.cause()));
+                        }
+                        release(transaction);
+                    });
+                } else {
+                    transaction.rollback(rollback -> {
+                        complete(command, Future.failedFuture(executed.cause()));
+                        release(transaction);
+                    });
+                }
+            });
+        });
+    }
+
+    private void complete(Command command, AsyncResult<List<JsonObject>> result) {
+        long latency = System.nanoTime() - command.created;
+        queries.incrementAndGet();
+        latencyTotal.addAndGet(latency);
+        latencyMax.accumulateAndGet(latency, Math::max);
+        if (result.failed()) {
+            failures.incrementAndGet();
+            LOGGER.error("Query failed.", result.cause());
+        }
+        command.resultHandler.handle(result);
+    }
+
+    private Future<RowSet<Row>> execute(SqlConnection connection, String query, JsonArray params) {
+        Promise<RowSet<Row>> promise = Promise.promise();
+        connection.preparedQuery(statement(query)).execute(toTuple(params), promise);
+        return promise.future();
+    }
+
+    /**
+     * The statements of this project use JDBC style '?' placeholders, the pg client expects '$n'.
+     */
+    private String statement(String query) {
+        return statements.computeIfAbsent(query, sql -> {
+            StringBuilder builder = new StringBuilder(sql.length() + 8);
+            boolean literal = false;
+            int index = 0;
+            for (char c : sql.toCharArray()) {
+                if (c == '\'') {
+                    literal = !literal;
+                }
+                if (c == '?' && !literal) {
+                    builder.append('$').append(++index);
+                } else {
+                    builder.append(c);
+                }
+            }
+            return builder.toString();
+        });
+    }
+
+    private Tuple toTuple(JsonArray params) {
+        Tuple tuple = Tuple.tuple();
+        if (params != null) {
+            for (Object param : params) {
+                tuple.addValue(param);
+            }
+        }
+        return tuple;
+    }
+
+    private List<JsonObject> toJson(RowSet<Row> rows) {
+        List<JsonObject> result = new ArrayList<>(rows.rowCount());
+        for (Row row : rows) {
+            JsonObject jsonObject = new JsonObject();
+            for (int i = 0; i < row.size(); i++) {
+                Object value = row.getValue(i);
+                if (value == null || value instanceof String || value instanceof Boolean
+                        || value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float) {
+                    jsonObject.put(row.getColumnName(i), value);
+                } else {
+                    jsonObject.put(row.getColumnName(i), value.toString());
+                }
+            }
+            result.add(jsonObject);
+        }
+        return result;
+    }
+
+    private static class Command {
+        private final Function<SqlConnection, Future<List<JsonObject>>> operation;
+        private final Handler<AsyncResult<List<JsonObject>>> resultHandler;
+        private final long created = System.nanoTime();
+
+        private Command(Function<SqlConnection, Future<List<JsonObject>>> operation, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            this.operation = operation;
+            this.resultHandler = resultHandler;
+        }
+    }
+}
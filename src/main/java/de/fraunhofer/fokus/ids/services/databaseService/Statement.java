@@ -0,0 +1,34 @@
+package de.fraunhofer.fokus.ids.services.databaseService;
+
+import io.vertx.core.json.JsonArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A statement and the parameters it is executed with, one of several executed in one transaction.
+ */
+final class Statement {
+
+    final String query;
+    final JsonArray params;
+
+    Statement(String query, JsonArray params) {
+        this.query = query;
+        this.params = params;
+    }
+
+    /**
+     * @throws IllegalArgumentException if not every query has its params
+     */
+    static List<Statement> statements(List<String> queries, List<JsonArray> params) {
+        if (queries.size() != params.size()) {
+            throw new IllegalArgumentException(queries.size() + " statements but " + params.size() + " params given");
+        }
+        List<Statement> statements = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            statements.add(new Statement(queries.get(i), params.get(i)));
+        }
+        return statements;
+    }
+}
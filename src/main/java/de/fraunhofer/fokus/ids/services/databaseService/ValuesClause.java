@@ -0,0 +1,62 @@
+package de.fraunhofer.fokus.ids.services.databaseService;
+
+import io.vertx.core.json.JsonArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expands the VALUES row of an insert statement to a multi-row insert, split into chunks of at most
+ * InClause.CHUNK_SIZE values.
+ */
+final class ValuesClause {
+
+    private static final String KEYWORD = "VALUES";
+
+    private ValuesClause() {
+    }
+
+    /**
+     * @param query insert statement ending with a single VALUES row, e.g. "... VALUES (NOW(),?,?)"
+     * @param rows parameters of each row, one per '?' of the VALUES row
+     * @throws IllegalArgumentException if the statement has no VALUES row or a row does not match it
+     */
+    static List<Statement> statements(String query, List<JsonArray> rows) {
+        int keyword = query.toUpperCase().lastIndexOf(KEYWORD);
+        int start = keyword == -1 ? -1 : query.indexOf('(', keyword + KEYWORD.length());
+        int end = start == -1 ? -1 : closingParenthesis(query, start);
+        if (end == -1) {
+            throw new IllegalArgumentException("Statement does not contain a VALUES row: " + query);
+        }
+        String row = query.substring(start, end + 1);
+        int valuesPerRow = (int) row.chars().filter(c -> c == '?').count();
+        int rowsPerChunk = Math.max(1, InClause.CHUNK_SIZE / Math.max(1, valuesPerRow));
+        List<Statement> statements = new ArrayList<>();
+        for (int first = 0; first < rows.size(); first += rowsPerChunk) {
+            int last = Math.min(first + rowsPerChunk, rows.size());
+            StringBuilder values = new StringBuilder(query.substring(0, start));
+            JsonArray params = new JsonArray();
+            for (int i = first; i < last; i++) {
+                if (rows.get(i).size() != valuesPerRow) {
+                    throw new IllegalArgumentException("Row " + i + " has " + rows.get(i).size() + " values, expected " + valuesPerRow);
+                }
+                values.append(i == first ? "" : ",").append(row);
+                params.addAll(rows.get(i));
+            }
+            statements.add(new Statement(values.append(query.substring(end + 1)).toString(), params));
+        }
+        return statements;
+    }
+
+    private static int closingParenthesis(String query, int open) {
+        int depth = 0;
+        for (int i = open; i < query.length(); i++) {
+            if (query.charAt(i) == '(') {
+                depth++;
+            } else if (query.charAt(i) == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
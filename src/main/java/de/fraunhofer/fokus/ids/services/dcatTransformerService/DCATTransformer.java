@@ -0,0 +1,185 @@
+package de.fraunhofer.fokus.ids.services.dcatTransformerService;
+
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.WorkerExecutor;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.sparql.vocabulary.FOAF;
+import org.apache.jena.vocabulary.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Transforms infomodel objects to DCAT. Used locally by the controllers, it works on the objects of the message
+ * directly, so they are neither serialized to be sent over the event bus nor deserialized again by the service.
+ * Every object is mapped into one model, which is written as Turtle on a thread of the worker pool. Transformations
+ * run in parallel, as many at once as the pool has threads.
+ */
+public class DCATTransformer {
+
+    private WorkerExecutor workerExecutor;
+
+    public DCATTransformer(WorkerExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+    }
+
+    public void transformCatalogue(Connector connector, String issued, Handler<AsyncResult<String>> readyHandler) {
+        transform(() -> catalogue(connector, issued), readyHandler);
+    }
+
+    public void transformDataset(Resource resource, String issued, Handler<AsyncResult<String>> readyHandler) {
+        transform(() -> dataset(resource, issued), readyHandler);
+    }
+
+    private void transform(Supplier<Model> mapping, Handler<AsyncResult<String>> readyHandler) {
+        workerExecutor.<String>executeBlocking(promise -> {
+            try {
+                promise.complete(turtle(mapping.get()));
+            } catch (Exception e) {
+                promise.fail(e);
+            }
+        }, false, readyHandler);
+    }
+
+    static String turtle(Model model) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            model.write(baos, "TTL");
+            return baos.toString(StandardCharsets.UTF_8.name());
+        }
+    }
+
+    static Model catalogue(Connector connector, String issued) {
+        Model model = setPrefixes(ModelFactory.createDefaultModel());
+        org.apache.jena.rdf.model.Resource catalogue = model.createResource(connector.getId().toString())
+                .addProperty(RDF.type, DCAT.Catalog)
+                .addLiteral(DCTerms.type, "dcat-ap")
+                .addProperty(DCTerms.language, model.createProperty("http://publications.europa.eu/resource/authority/language/ENG"));
+
+        org.apache.jena.rdf.model.Resource publisher = model.createResource("http://ids.fokus.fraunhofer.de/publisher/"+UUID.randomUUID().toString());
+
+        if (connector.getMaintainer()!=null) {
+            publisher.addProperty(RDF.type, FOAF.Agent)
+                    .addLiteral(FOAF.name, connector.getMaintainer().toString());
+        }
+        if (connector.getPhysicalLocation()!=null) {
+            catalogue.addProperty(DCTerms.spatial, model.createResource(connector.getPhysicalLocation().getId().toString()));
+        }
+
+        catalogue.addProperty(DCTerms.publisher, publisher);
+
+        addTypedLiterals(catalogue, connector.getTitle(), DCTerms.title, model);
+        addTypedLiterals(catalogue, connector.getDescription(), DCTerms.description, model);
+        addDateLiterals(catalogue,issued,model);
+        return model;
+    }
+
+    static Model dataset(Resource dataasset, String issued) {
+        Model model = setPrefixes(ModelFactory.createDefaultModel());
+
+        org.apache.jena.rdf.model.Resource dataset = model.createResource(dataasset.getId().toString())
+                .addProperty(RDF.type, DCAT.Dataset);
+
+        if (dataasset.getPublisher() != null ){
+            checkNull(dataasset.getPublisher(),DCTerms.publisher,dataset);
+        }
+
+        checkNull(dataasset.getStandardLicense(),DCTerms.license,dataset);
+        checkNull(dataasset.getVersion(),DCTerms.hasVersion,dataset);
+        addTypedLiterals(dataset, dataasset.getKeyword(),DCAT.keyword, model);
+        addDateLiterals(dataset,issued,model);
+        if (dataasset.getTheme()!=null){
+            for (URI uri:dataasset.getTheme()){
+                checkNull(uri,DCAT.theme,dataset);
+            }
+        }
+
+        for (Endpoint endpoint:dataasset.getResourceEndpoint()){
+            String string = endpoint.getEndpointHost().getId()+endpoint.getPath();
+            dataset.addProperty(DCAT.endpointURL,string);
+        }
+
+        if(dataasset.getLanguage() != null) {
+            for (Language language : dataasset.getLanguage()) {
+                dataset.addLiteral(DCTerms.language, language.toString());
+            }
+        }
+        addTypedLiterals(dataset, dataasset.getTitle(), DCTerms.title, model);
+        addTypedLiterals(dataset, dataasset.getDescription(), DCTerms.description, model);
+
+        StaticEndpoint endpoint = (StaticEndpoint) dataasset.getResourceEndpoint().get(0);
+
+        String accessUrl = endpoint.getEndpointHost().getAccessUrl()+endpoint.getPath()+endpoint.getEndpointArtifact().getFileName();
+        String id = "http://example.org/"+ UUID.randomUUID().toString();
+        org.apache.jena.rdf.model.Resource distribution = model.createResource(id)
+                    .addProperty(RDF.type, DCAT.Distribution)
+                    .addProperty(DCAT.accessURL, accessUrl)
+                    .addProperty(DCTerms.title,"Distribution-"+endpoint.getEndpointArtifact().getFileName());
+        if(dataasset.getCustomLicense() != null){
+            distribution.addProperty(DCTerms.license, dataasset.getCustomLicense().toString());
+        }
+
+        dataset.addProperty(DCAT.distribution, distribution);
+        return model;
+    }
+
+    private static void addDateLiterals(org.apache.jena.rdf.model.Resource resource,String issued, Model model){
+        Date date = new Date();
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss");
+        resource.addLiteral(DCTerms.modified,model.createTypedLiteral(sdf.format(date),"xsd:dateTime"));
+        if (issued!=null) {
+            try {
+                date = sdf.parse(issued);
+            } catch (ParseException e) {
+                e.printStackTrace();
+            }
+        }
+            resource.addLiteral(DCTerms.issued,model.createTypedLiteral(sdf.format(date),"xsd:dateTime"));
+    }
+
+    private static void addTypedLiterals(org.apache.jena.rdf.model.Resource resource, ArrayList<? extends TypedLiteral> list, Property relation, Model model){
+        if(list != null) {
+            for (TypedLiteral literal : list) {
+                String lang = "en";
+                if(literal.getLanguage()!=null){
+                    lang = literal.getLanguage();
+                }
+                resource.addLiteral(relation,model.createLiteral(literal.getValue(), lang));
+            }
+        }
+    }
+
+    private static Model setPrefixes(Model model) {
+        return model.setNsPrefix("dcat", DCAT.NS)
+                .setNsPrefix("dct", DCTerms.NS)
+                .setNsPrefix("foaf", FOAF.NS)
+                .setNsPrefix("locn","http://www.w3.org/ns/locn#")
+                .setNsPrefix("owl", OWL.NS)
+                .setNsPrefix("rdf", RDF.uri)
+                .setNsPrefix("rdfs", RDFS.uri)
+                .setNsPrefix("schema","http://schema.org/")
+                .setNsPrefix("skos", SKOS.uri)
+                .setNsPrefix("time","http://www.w3.org/2006/time")
+                .setNsPrefix("vcard", VCARD.uri)
+                .setNsPrefix("xml","http://www.w3.org/XML/1998/namespace")
+                .setNsPrefix("xsd", XSD.NS);
+    }
+
+    private static void checkNull(Object object, Property property,org.apache.jena.rdf.model.Resource resource ){
+        if (object!=null){
+            resource.addProperty(property, String.valueOf(object));
+        }
+    }
+}
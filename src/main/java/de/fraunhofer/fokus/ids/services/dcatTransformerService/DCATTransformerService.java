@@ -1,6 +1,5 @@
 package de.fraunhofer.fokus.ids.services.dcatTransformerService;
 
-import de.fraunhofer.fokus.ids.utils.JsonLdContextResolver;
 import io.vertx.codegen.annotations.Fluent;
 import io.vertx.codegen.annotations.GenIgnore;
 import io.vertx.codegen.annotations.ProxyGen;
@@ -21,12 +20,9 @@ public interface DCATTransformerService {
     @Fluent
     DCATTransformerService transformDataset(String datasetJson,String issued, Handler<AsyncResult<String>> readyHandler);
 
-    @Fluent
-    DCATTransformerService transformJsonForVirtuoso(String connectorJson, Handler<AsyncResult<String>> readyHandler);
-
     @GenIgnore
-    static DCATTransformerService create(JsonLdContextResolver jsonLdContextResolver, Handler<AsyncResult<DCATTransformerService>> readyHandler) {
-        return new DCATTransformerServiceImpl(jsonLdContextResolver, readyHandler);
+    static DCATTransformerService create(Handler<AsyncResult<DCATTransformerService>> readyHandler) {
+        return new DCATTransformerServiceImpl(readyHandler);
     }
 
     @GenIgnore
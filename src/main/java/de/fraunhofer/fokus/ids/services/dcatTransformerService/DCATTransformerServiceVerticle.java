@@ -1,8 +1,6 @@
 package de.fraunhofer.fokus.ids.services.dcatTransformerService;
 
-import de.fraunhofer.fokus.ids.utils.JsonLdContextResolver;
 import io.vertx.core.AbstractVerticle;
-import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -13,8 +11,7 @@ public class DCATTransformerServiceVerticle extends AbstractVerticle {
 
     @Override
     public void start(Promise<Void> startPromise) {
-
-        DCATTransformerService.create(new JsonLdContextResolver(vertx), ready -> {
+        DCATTransformerService.create(ready -> {
             if (ready.succeeded()) {
                 ServiceBinder binder = new ServiceBinder(vertx);
                 binder
@@ -29,4 +26,3 @@ public class DCATTransformerServiceVerticle extends AbstractVerticle {
         });
     }
 }
-
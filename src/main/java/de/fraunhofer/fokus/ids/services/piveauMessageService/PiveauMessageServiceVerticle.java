@@ -1,5 +1,6 @@
 package de.fraunhofer.fokus.ids.services.piveauMessageService;
 
+import de.fraunhofer.fokus.ids.utils.HttpClientPool;
 import io.vertx.config.ConfigRetriever;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
@@ -16,8 +17,6 @@ public class PiveauMessageServiceVerticle extends AbstractVerticle {
 
     @Override
     public void start(Promise<Void> startPromise) {
-        WebClient webClient = WebClient.create(vertx);
-
         ConfigStoreOptions confStore = new ConfigStoreOptions()
                 .setType("env");
 
@@ -28,6 +27,7 @@ public class PiveauMessageServiceVerticle extends AbstractVerticle {
         retriever.getConfig(ar -> {
             if (ar.succeeded()) {
                 JsonObject config = ar.result().getJsonObject("PIVEAU_HUB_CONFIG");
+                WebClient webClient = HttpClientPool.create(vertx, "piveau", ar.result().getJsonObject("PIVEAU_CLIENT_CONFIG", new JsonObject())).webClient();
                 PiveauMessageService.create(vertx, webClient, config, ready -> {
                     if (ready.succeeded()) {
                         ServiceBinder binder = new ServiceBinder(vertx);
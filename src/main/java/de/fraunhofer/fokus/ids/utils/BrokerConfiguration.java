@@ -0,0 +1,38 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.Collections;
+
+/**
+ * Snapshot of the BROKER_CONFIG block, loaded once at startup and shared by everything building IDS responses.
+ * Readers always see a complete, read-only configuration; a changed configuration replaces the snapshot as a whole.
+ */
+public class BrokerConfiguration {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(BrokerConfiguration.class.getName());
+
+    private volatile JsonObject config;
+
+    public BrokerConfiguration(JsonObject config) {
+        this.config = snapshot(config);
+    }
+
+    public JsonObject get() {
+        return config;
+    }
+
+    public void update(JsonObject config) {
+        JsonObject snapshot = snapshot(config);
+        if (!snapshot.equals(this.config)) {
+            this.config = snapshot;
+            LOGGER.info("Broker configuration reloaded.");
+        }
+    }
+
+    private static JsonObject snapshot(JsonObject config) {
+        return new JsonObject(Collections.unmodifiableMap(config == null ? new JsonObject().getMap() : config.copy().getMap()));
+    }
+}
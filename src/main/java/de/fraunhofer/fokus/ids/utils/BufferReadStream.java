@@ -0,0 +1,95 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Read stream of a result that is already in memory. Nothing is emitted before a handler is set or the stream is
+ * resumed; resuming without a handler discards the content.
+ */
+class BufferReadStream implements ReadStream<Buffer> {
+
+    private final Context context;
+
+    private Buffer buffer;
+    private Handler<Buffer> handler;
+    private Handler<Void> endHandler;
+    private long demand = 0L;
+    private boolean ended;
+
+    BufferReadStream(Buffer buffer) {
+        this.context = Vertx.currentContext();
+        this.buffer = buffer;
+    }
+
+    @Override
+    public BufferReadStream exceptionHandler(Handler<Throwable> handler) {
+        return this;
+    }
+
+    @Override
+    public synchronized BufferReadStream handler(Handler<Buffer> handler) {
+        this.handler = handler;
+        if (handler != null) {
+            demand = Long.MAX_VALUE;
+            schedule();
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized BufferReadStream pause() {
+        demand = 0L;
+        return this;
+    }
+
+    @Override
+    public BufferReadStream resume() {
+        return fetch(Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized BufferReadStream fetch(long amount) {
+        demand = demand + amount < 0 ? Long.MAX_VALUE : demand + amount;
+        schedule();
+        return this;
+    }
+
+    @Override
+    public synchronized BufferReadStream endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    private void schedule() {
+        context.runOnContext(v -> emit());
+    }
+
+    private void emit() {
+        Buffer content;
+        Handler<Buffer> dataHandler;
+        Handler<Void> end;
+        synchronized (this) {
+            if (ended || demand == 0L) {
+                return;
+            }
+            content = buffer;
+            dataHandler = handler;
+            buffer = null;
+            ended = true;
+            end = endHandler;
+            if (content != null && demand != Long.MAX_VALUE) {
+                demand--;
+            }
+        }
+        if (content != null && dataHandler != null) {
+            dataHandler.handle(content);
+        }
+        if (end != null) {
+            end.handle(null);
+        }
+    }
+}
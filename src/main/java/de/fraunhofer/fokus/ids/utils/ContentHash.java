@@ -0,0 +1,55 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hash of a serialized infomodel object, to recognize descriptions that did not change. The JSON is canonicalized
+ * with sorted keys, and ids the infomodel generates for nested objects without an id are left out, since they are
+ * generated anew every time a connector builds its description.
+ */
+public class ContentHash {
+
+    private static final String GENERATED_ID_PREFIX = "https://w3id.org/idsa/autogen/";
+
+    private ContentHash() {
+    }
+
+    /**
+     * @return hex encoded SHA-256 of the canonical JSON
+     */
+    public static String of(String json) {
+        return DigestUtils.sha256Hex(String.valueOf(canonical(Json.decodeValue(json))));
+    }
+
+    private static Object canonical(Object value) {
+        if (value instanceof JsonObject) {
+            JsonObject object = (JsonObject) value;
+            List<String> keys = new ArrayList<>(object.fieldNames());
+            Collections.sort(keys);
+            JsonObject sorted = new JsonObject();
+            for (String key : keys) {
+                Object field = object.getValue(key);
+                if ("@id".equals(key) && field instanceof String && ((String) field).startsWith(GENERATED_ID_PREFIX)) {
+                    continue;
+                }
+                sorted.put(key, canonical(field));
+            }
+            return sorted;
+        }
+        if (value instanceof JsonArray) {
+            JsonArray array = new JsonArray();
+            for (Object element : (JsonArray) value) {
+                array.add(canonical(element));
+            }
+            return array;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,91 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Digest credentials for the triple store. The last challenge is kept, so requests are authorized up front and only a
+ * stale nonce or a first request costs an extra round trip. Every request with the same nonce uses the next nonce
+ * count. A new challenge replaces the previous one as a whole, so concurrent requests never mix nonces and counts.
+ */
+class DigestAuthentication {
+
+    private static final Pattern PARAMETER = Pattern.compile("(\\w+)\\s*=\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,\\s]*))");
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String username;
+    private final String password;
+    private volatile Challenge challenge;
+
+    DigestAuthentication(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * @return the Authorization header for the request, or null as long as no challenge was received
+     */
+    String authorization(String method, String uri) {
+        Challenge current = challenge;
+        return current != null ? current.authorization(method, uri) : null;
+    }
+
+    /**
+     * Take over the challenge of a 401 response.
+     *
+     * @param authorized whether the rejected request carried an Authorization header
+     * @return whether the request should be repeated: after a first challenge or a stale nonce, not after rejected
+     * credentials
+     */
+    boolean challenge(String wwwAuthenticate, boolean authorized) {
+        if (wwwAuthenticate == null || !wwwAuthenticate.regionMatches(true, 0, "Digest ", 0, 7)) {
+            return false;
+        }
+        Map<String, String> parameters = new HashMap<>();
+        Matcher matcher = PARAMETER.matcher(wwwAuthenticate.substring(7));
+        while (matcher.find()) {
+            parameters.put(matcher.group(1).toLowerCase(), matcher.group(2) != null ? matcher.group(2).replaceAll("\\\\(.)", "$1") : matcher.group(3));
+        }
+        if (parameters.get("nonce") == null) {
+            return false;
+        }
+        challenge = new Challenge(parameters.get("realm"), parameters.get("nonce"), parameters.get("opaque"));
+        return !authorized || "true".equalsIgnoreCase(parameters.get("stale"));
+    }
+
+    private class Challenge {
+        private final String realm;
+        private final String nonce;
+        private final String opaque;
+        private final String ha1;
+        private final AtomicLong nonceCount = new AtomicLong();
+
+        private Challenge(String realm, String nonce, String opaque) {
+            this.realm = realm;
+            this.nonce = nonce;
+            this.opaque = opaque;
+            this.ha1 = DigestUtils.md5Hex(username + ":" + realm + ":" + password);
+        }
+
+        private String authorization(String method, String uri) {
+            byte[] cnonceBytes = new byte[8];
+            RANDOM.nextBytes(cnonceBytes);
+            String clientNonce = DigestUtils.md5Hex(cnonceBytes).substring(0, 16);
+            String nc = String.format("%08x", nonceCount.incrementAndGet());
+            String ha2 = DigestUtils.md5Hex(method + ":" + uri);
+            String response = DigestUtils.md5Hex(ha1 + ":" + nonce + ":" + nc + ":" + clientNonce + ":auth:" + ha2);
+            return "Digest username=" + quote(username) + ", realm=" + quote(realm) + ", nonce=" + quote(nonce) + ", uri=" + quote(uri) + ", cnonce=\"" + clientNonce + "\", nc=" + nc + ", qop=auth, response=\"" + response + "\", algorithm=\"MD5\""
+                    + (opaque != null ? ", opaque=" + quote(opaque) : "");
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + String.valueOf(value).replaceAll("([\"\\\\])", "\\\\$1") + "\"";
+    }
+}
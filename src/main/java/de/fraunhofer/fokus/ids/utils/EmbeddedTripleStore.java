@@ -0,0 +1,115 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.TDB2;
+import org.apache.jena.tdb2.TDB2Factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Map;
+
+/**
+ * Triple store backed by a TDB2 dataset in the broker's process, for deployments without Virtuoso. Graphs are read and
+ * written in transactions on worker threads. The default graph of queries is the union of all named graphs, as in
+ * Virtuoso. Without a location the dataset is kept in memory.
+ */
+public class EmbeddedTripleStore implements TripleStore {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(EmbeddedTripleStore.class.getName());
+
+    private Vertx vertx;
+    private Dataset dataset;
+
+    public static EmbeddedTripleStore create(Vertx vertx, JsonObject config) {
+        return new EmbeddedTripleStore(vertx, config);
+    }
+
+    private EmbeddedTripleStore(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        String location = config.getString("location");
+        this.dataset = location != null ? TDB2Factory.connectDataset(location) : TDB2Factory.createDataset();
+        this.dataset.getContext().set(TDB2.symUnionDefaultGraph, true);
+        LOGGER.info("Embedded triple store opened at " + (location != null ? location : "memory"));
+    }
+
+    @Override
+    public void getGraph(String graphName, Handler<AsyncResult<String>> handler) {
+        vertx.<String>executeBlocking(promise -> Txn.executeRead(dataset, () -> {
+            if (!dataset.containsNamedModel(graphName)) {
+                promise.fail("Graph " + graphName + " not found.");
+                return;
+            }
+            StringWriter writer = new StringWriter();
+            dataset.getNamedModel(graphName).write(writer, "JSON-LD");
+            promise.complete(writer.toString());
+        }), false, handler);
+    }
+
+    @Override
+    public void putGraph(String graphName, Model model, Handler<AsyncResult<Void>> handler) {
+        vertx.<Void>executeBlocking(promise -> {
+            Txn.executeWrite(dataset, () -> dataset.getNamedModel(graphName).removeAll().add(model));
+            promise.complete();
+        }, false, handler);
+    }
+
+    /**
+     * All graphs are replaced in a single write transaction.
+     */
+    @Override
+    public void putGraphs(Map<String, Model> graphs, Handler<AsyncResult<Void>> handler) {
+        vertx.<Void>executeBlocking(promise -> {
+            Txn.executeWrite(dataset, () -> graphs.forEach((graphName, model) -> dataset.getNamedModel(graphName).removeAll().add(model)));
+            promise.complete();
+        }, false, handler);
+    }
+
+    @Override
+    public void deleteGraph(String graphName, Handler<AsyncResult<Void>> handler) {
+        vertx.<Void>executeBlocking(promise -> {
+            Txn.executeWrite(dataset, () -> dataset.removeNamedModel(graphName));
+            promise.complete();
+        }, false, handler);
+    }
+
+    /**
+     * Results are serialized as SPARQL JSON results, or JSON-LD for CONSTRUCT and DESCRIBE queries, regardless of the
+     * accepted type.
+     */
+    @Override
+    public void queryStream(String query, String accept, long timeout, Handler<AsyncResult<ReadStream<Buffer>>> handler) {
+        vertx.<Buffer>executeBlocking(promise -> {
+            Query parsed = QueryFactory.create(query);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Txn.executeRead(dataset, () -> {
+                try (QueryExecution execution = QueryExecutionFactory.create(parsed, dataset)) {
+                    if (timeout > 0) {
+                        execution.setTimeout(timeout);
+                    }
+                    if (parsed.isSelectType()) {
+                        ResultSetFormatter.outputAsJSON(out, execution.execSelect());
+                    } else if (parsed.isAskType()) {
+                        ResultSetFormatter.outputAsJSON(out, execution.execAsk());
+                    } else if (parsed.isConstructType()) {
+                        RDFDataMgr.write(out, execution.execConstruct(), Lang.JSONLD);
+                    } else {
+                        RDFDataMgr.write(out, execution.execDescribe(), Lang.JSONLD);
+                    }
+                }
+            });
+            promise.complete(Buffer.buffer(out.toByteArray()));
+        }, false, ar -> handler.handle(ar.map(BufferReadStream::new)));
+    }
+}
@@ -0,0 +1,146 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs a task for every item of a collection with at most window tasks running at once, so controllers do not send
+ * requests for thousands of datasets to the backends at the same time. Every task runs, also after others failed.
+ * Results are delivered in the order of the items once all tasks completed.
+ */
+public class FanOut {
+
+    private static final int DEFAULT_WINDOW = 8;
+
+    private int window;
+
+    /**
+     * @param config window: tasks running at once
+     */
+    public FanOut(JsonObject config) {
+        this.window = Math.max(1, config.getInteger("window", DEFAULT_WINDOW));
+    }
+
+    /**
+     * @param resultHandler the results in the order of the items, or a FanOutException with the failures of all items
+     *                      that failed
+     */
+    public <T, R> void all(Collection<T> items, BiConsumer<T, Handler<AsyncResult<R>>> task, Handler<AsyncResult<List<R>>> resultHandler) {
+        if (items.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture(new ArrayList<>()));
+            return;
+        }
+        new Run<>(new ArrayList<>(items), task, resultHandler).pump();
+    }
+
+    private class Run<T, R> {
+        private final List<T> items;
+        private final BiConsumer<T, Handler<AsyncResult<R>>> task;
+        private final Handler<AsyncResult<List<R>>> resultHandler;
+        private final List<AsyncResult<R>> results;
+        private int next;
+        private int active;
+        private int completed;
+        private boolean pumping;
+
+        private Run(List<T> items, BiConsumer<T, Handler<AsyncResult<R>>> task, Handler<AsyncResult<List<R>>> resultHandler) {
+            this.items = items;
+            this.task = task;
+            this.resultHandler = resultHandler;
+            this.results = new ArrayList<>(Collections.nCopies(items.size(), null));
+        }
+
+        /**
+         * Start tasks until the window is full. Tasks that complete while they are started do not start further tasks
+         * themselves, so synchronous completions do not nest.
+         */
+        private void pump() {
+            synchronized (this) {
+                if (pumping) {
+                    return;
+                }
+                pumping = true;
+            }
+            while (true) {
+                int index;
+                synchronized (this) {
+                    if (active >= window || next >= items.size()) {
+                        pumping = false;
+                        return;
+                    }
+                    index = next++;
+                    active++;
+                }
+                try {
+                    task.accept(items.get(index), ar -> complete(index, ar));
+                } catch (RuntimeException e) {
+                    complete(index, Future.failedFuture(e));
+                }
+            }
+        }
+
+        private void complete(int index, AsyncResult<R> result) {
+            boolean done;
+            synchronized (this) {
+                if (results.get(index) != null) {
+                    return;
+                }
+                results.set(index, result);
+                active--;
+                completed++;
+                done = completed == items.size();
+            }
+            if (done) {
+                finish();
+            } else {
+                pump();
+            }
+        }
+
+        private void finish() {
+            List<R> values = new ArrayList<>(results.size());
+            Map<Integer, Throwable> failures = new LinkedHashMap<>();
+            for (int i = 0; i < results.size(); i++) {
+                AsyncResult<R> result = results.get(i);
+                if (result.succeeded()) {
+                    values.add(result.result());
+                } else {
+                    values.add(null);
+                    failures.put(i, result.cause());
+                }
+            }
+            if (failures.isEmpty()) {
+                resultHandler.handle(Future.succeededFuture(values));
+            } else {
+                resultHandler.handle(Future.failedFuture(new FanOutException(items.size(), failures)));
+            }
+        }
+    }
+
+    public static class FanOutException extends RuntimeException {
+        private final Map<Integer, Throwable> failures;
+
+        private FanOutException(int items, Map<Integer, Throwable> failures) {
+            super(failures.size() + " of " + items + " tasks failed, first: " + failures.values().iterator().next().getMessage(),
+                    failures.values().iterator().next());
+            this.failures = failures;
+        }
+
+        /**
+         * @return the causes by the index of the failed item
+         */
+        public Map<Integer, Throwable> getFailures() {
+            return failures;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.WebClient;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection pool of one backend. Connections are kept alive and reused, so bursts of requests do not wait for new
+ * connections to be established. Callers count their requests while they are in flight with started(), for both the
+ * web client and the HTTP client. Requests that exceed the capacity of the open connections wait for a connection,
+ * their number is estimated from the requests in flight and the open connections.
+ */
+public class HttpClientPool {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(HttpClientPool.class.getName());
+
+    private static final int DEFAULT_MAX_POOL_SIZE = 16;
+    private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 60;
+    private static final int DEFAULT_PIPELINING_LIMIT = 10;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    private static final int DEFAULT_HTTP2_MAX_POOL_SIZE = 1;
+
+    private String name;
+    private HttpClientOptions options;
+    private HttpClient httpClient;
+    private WebClient webClient;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * @param config maxPoolSize: connections per host, keepAlive and keepAliveTimeout (s): reuse of idle connections,
+     *               pipelining and pipeliningLimit, connectTimeout (ms), idleTimeout (s): close connections without
+     *               traffic, 0 for never, maxWaitQueueSize: requests waiting for a connection, -1 for unbounded, http2:
+     *               use HTTP/2 with http2MaxPoolSize connections and http2MultiplexingLimit streams each,
+     *               metricsInterval (ms): log the metrics periodically, 0 for never
+     */
+    public static HttpClientPool create(Vertx vertx, String name, JsonObject config) {
+        return new HttpClientPool(vertx, name, config);
+    }
+
+    private HttpClientPool(Vertx vertx, String name, JsonObject config) {
+        this.name = name;
+        this.options = new HttpClientOptions()
+                .setMaxPoolSize(config.getInteger("maxPoolSize", DEFAULT_MAX_POOL_SIZE))
+                .setKeepAlive(config.getBoolean("keepAlive", true))
+                .setKeepAliveTimeout(config.getInteger("keepAliveTimeout", DEFAULT_KEEP_ALIVE_TIMEOUT))
+                .setPipelining(config.getBoolean("pipelining", false))
+                .setPipeliningLimit(config.getInteger("pipeliningLimit", DEFAULT_PIPELINING_LIMIT))
+                .setConnectTimeout(config.getInteger("connectTimeout", DEFAULT_CONNECT_TIMEOUT))
+                .setIdleTimeout(config.getInteger("idleTimeout", 0))
+                .setMaxWaitQueueSize(config.getInteger("maxWaitQueueSize", -1));
+        if (config.getBoolean("http2", false)) {
+            options.setProtocolVersion(HttpVersion.HTTP_2)
+                    .setHttp2ClearTextUpgrade(true)
+                    .setHttp2MaxPoolSize(config.getInteger("http2MaxPoolSize", DEFAULT_HTTP2_MAX_POOL_SIZE))
+                    .setHttp2MultiplexingLimit(config.getInteger("http2MultiplexingLimit", -1));
+        }
+        this.httpClient = vertx.createHttpClient(options);
+        this.httpClient.connectionHandler(connection -> {
+            openConnections.incrementAndGet();
+            connectionsOpened.incrementAndGet();
+            connection.closeHandler(v -> openConnections.decrementAndGet());
+        });
+        this.webClient = WebClient.wrap(httpClient);
+        long metricsInterval = config.getLong("metricsInterval", 0L);
+        if (metricsInterval > 0) {
+            vertx.setPeriodic(metricsInterval, id -> LOGGER.info("HTTP client pool " + name + ": " + metrics()));
+        }
+    }
+
+    public HttpClient httpClient() {
+        return httpClient;
+    }
+
+    public WebClient webClient() {
+        return webClient;
+    }
+
+    /**
+     * Count a request until the returned action is run, once its response was read or it failed. The action may be
+     * run more than once.
+     */
+    public Runnable started() {
+        inFlight.incrementAndGet();
+        requests.incrementAndGet();
+        AtomicBoolean done = new AtomicBoolean();
+        return () -> {
+            if (done.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+            }
+        };
+    }
+
+    public JsonObject metrics() {
+        int open = openConnections.get();
+        int active = inFlight.get();
+        long perConnection;
+        if (options.getProtocolVersion() == HttpVersion.HTTP_2) {
+            perConnection = options.getHttp2MultiplexingLimit() > 0 ? options.getHttp2MultiplexingLimit() : Integer.MAX_VALUE;
+        } else {
+            perConnection = options.isPipelining() ? options.getPipeliningLimit() : 1;
+        }
+        return new JsonObject()
+                .put("name", name)
+                .put("maxPoolSize", options.getProtocolVersion() == HttpVersion.HTTP_2 ? options.getHttp2MaxPoolSize() : options.getMaxPoolSize())
+                .put("openConnections", open)
+                .put("inUseConnections", (int) Math.min(open, (active + perConnection - 1) / perConnection))
+                .put("inFlight", active)
+                .put("waitQueueLength", Math.max(0L, active - open * perConnection))
+                .put("connectionsOpened", connectionsOpened.get())
+                .put("requests", requests.get());
+    }
+}
@@ -6,6 +6,10 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 
 public class InitService {
 
@@ -13,16 +17,173 @@ public class InitService {
 
     private DatabaseService databaseService;
 
-    private final String CATALOGUE_TABLE_CREATE_QUERY = "CREATE TABLE IF NOT EXISTS catalogues (id SERIAL , created_at TIMESTAMP , updated_at TIMESTAMP , internal_id TEXT, external_id TEXT)";
-    private final String DATASET_TABLE_CREATE_QUERY = "CREATE TABLE IF NOT EXISTS datasets (id SERIAL , created_at TIMESTAMP , updated_at TIMESTAMP , internal_id TEXT, external_id TEXT)";
+    private final String SCHEMA_VERSION_TABLE_CREATE_QUERY = "CREATE TABLE IF NOT EXISTS schema_version (version INTEGER PRIMARY KEY, description TEXT, applied_at TIMESTAMP)";
+    private final String SELECT_SCHEMA_VERSION_QUERY = "SELECT COALESCE(MAX(version), 0) AS version FROM schema_version";
+    private final String INSERT_SCHEMA_VERSION_QUERY = "INSERT INTO schema_version (version, description, applied_at) VALUES (?, ?, NOW()) ON CONFLICT (version) DO NOTHING";
+
+    /**
+     * Ordered schema migrations. Each migration runs in one transaction with the insert of its version. Statements have
+     * to be idempotent, as concurrently starting instances may run the same migration before its version is recorded.
+     * Migrations never destroy data silently: rows they remove are logged first, and a migration is aborted if a check
+     * finds rows it would have to resolve by hand. Never change a released migration, append a new one instead.
+     */
+    private final List<Migration> MIGRATIONS = Arrays.asList(
+            new Migration(1, "Create catalogues and datasets tables",
+                    "CREATE TABLE IF NOT EXISTS catalogues (id SERIAL , created_at TIMESTAMP , updated_at TIMESTAMP , internal_id TEXT, external_id TEXT)",
+                    "CREATE TABLE IF NOT EXISTS datasets (id SERIAL , created_at TIMESTAMP , updated_at TIMESTAMP , internal_id TEXT, external_id TEXT)"),
+            new Migration(2, "Unique indexes on internal and external ids",
+                    "DELETE FROM catalogues a USING catalogues b WHERE a.id > b.id AND a.internal_id = b.internal_id AND a.external_id = b.external_id",
+                    "DELETE FROM datasets a USING datasets b WHERE a.id > b.id AND a.internal_id = b.internal_id AND a.external_id = b.external_id",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS catalogues_internal_id_idx ON catalogues (internal_id)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS catalogues_external_id_idx ON catalogues (external_id)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS datasets_internal_id_idx ON datasets (internal_id)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS datasets_external_id_idx ON datasets (external_id)")
+                    .abortIf("Catalogues sharing an internal or external id with a different counterpart", conflicts("catalogues"))
+                    .abortIf("Datasets sharing an internal or external id with a different counterpart", conflicts("datasets"))
+                    .logRemoved("Duplicate catalogue rows removed", duplicates("catalogues"))
+                    .logRemoved("Duplicate dataset rows removed", duplicates("datasets")),
+            new Migration(3, "Catalogue foreign key on datasets",
+                    "ALTER TABLE datasets ADD COLUMN IF NOT EXISTS catalogue_id TEXT REFERENCES catalogues (internal_id) ON DELETE CASCADE",
+                    "CREATE INDEX IF NOT EXISTS datasets_catalogue_id_idx ON datasets (catalogue_id)"),
+            new Migration(4, "Content hash of datasets",
+                    "ALTER TABLE datasets ADD COLUMN IF NOT EXISTS content_hash TEXT")
+    );
 
     public InitService(Vertx vertx){
         this.databaseService = DatabaseService.createProxy(vertx, "databaseService");
     }
 
+    /**
+     * Bring the schema to the latest version by running all migrations newer than the recorded schema version.
+     */
     public void initDatabase(Handler<AsyncResult<Void>> resultHandler){
-        databaseService.update(CATALOGUE_TABLE_CREATE_QUERY, new JsonArray(), reply -> {});
-        databaseService.update(DATASET_TABLE_CREATE_QUERY, new JsonArray(), reply -> {});
-        resultHandler.handle(Future.succeededFuture());
+        databaseService.update(SCHEMA_VERSION_TABLE_CREATE_QUERY, new JsonArray(), tableReply -> {
+            if (tableReply.succeeded()) {
+                databaseService.query(SELECT_SCHEMA_VERSION_QUERY, new JsonArray(), versionReply -> {
+                    if (versionReply.succeeded()) {
+                        int version = versionReply.result().isEmpty() ? 0 : versionReply.result().get(0).getInteger("version", 0);
+                        LOGGER.info("Database schema version: " + version);
+                        Future<Void> migrations = Future.succeededFuture();
+                        for (Migration migration : MIGRATIONS) {
+                            if (migration.version > version) {
+                                migrations = migrations.compose(v -> migrate(migration));
+                            }
+                        }
+                        migrations.setHandler(resultHandler);
+                    } else {
+                        LOGGER.error(versionReply.cause());
+                        resultHandler.handle(Future.failedFuture(versionReply.cause()));
+                    }
+                });
+            } else {
+                LOGGER.error(tableReply.cause());
+                resultHandler.handle(Future.failedFuture(tableReply.cause()));
+            }
+        });
+    }
+
+    /**
+     * Rows of table whose internal or external id is also used by another row with a different counterpart. Removing
+     * either row would lose the mapping to a piveau dataset or catalogue, so they have to be resolved by hand.
+     */
+    private static String conflicts(String table){
+        return "SELECT DISTINCT a.id, a.internal_id, a.external_id FROM " + table + " a JOIN " + table + " b ON a.id <> b.id"
+                + " AND (a.internal_id = b.internal_id OR a.external_id = b.external_id)"
+                + " AND (a.internal_id IS DISTINCT FROM b.internal_id OR a.external_id IS DISTINCT FROM b.external_id) ORDER BY a.id";
+    }
+
+    /**
+     * Rows of table repeating both ids of an older row, which are removed without losing a mapping.
+     */
+    private static String duplicates(String table){
+        return "SELECT a.id, a.internal_id, a.external_id FROM " + table + " a JOIN " + table + " b ON a.id > b.id"
+                + " AND a.internal_id = b.internal_id AND a.external_id = b.external_id ORDER BY a.id";
+    }
+
+    private Future<Void> migrate(Migration migration){
+        Future<Void> checks = Future.succeededFuture();
+        for (Check check : migration.checks) {
+            checks = checks.compose(v -> check(migration, check));
+        }
+        return checks.compose(v -> {
+            List<String> statements = new ArrayList<>(migration.statements);
+            statements.add(INSERT_SCHEMA_VERSION_QUERY);
+            List<JsonArray> params = new ArrayList<>();
+            migration.statements.forEach(statement -> params.add(new JsonArray()));
+            params.add(new JsonArray().add(migration.version).add(migration.description));
+            Promise<Void> promise = Promise.promise();
+            databaseService.updateAll(statements, params, reply -> {
+                if (reply.succeeded()) {
+                    LOGGER.info("Database schema migrated to version " + migration.version + ": " + migration.description);
+                    promise.complete();
+                } else {
+                    LOGGER.error("Migration to version " + migration.version + " failed and was rolled back.", reply.cause());
+                    promise.fail(reply.cause());
+                }
+            });
+            return promise.future();
+        });
+    }
+
+    private Future<Void> check(Migration migration, Check check){
+        Promise<Void> promise = Promise.promise();
+        databaseService.query(check.query, new JsonArray(), reply -> {
+            if (reply.failed()) {
+                LOGGER.error("Check of migration " + migration.version + " failed: " + check.query, reply.cause());
+                promise.fail(reply.cause());
+            } else if (reply.result().isEmpty()) {
+                promise.complete();
+            } else if (check.abort) {
+                String message = "Migration to version " + migration.version + " aborted. " + check.description + ": " + reply.result()
+                        + ". Resolve them by hand and restart.";
+                LOGGER.error(message);
+                promise.fail(message);
+            } else {
+                LOGGER.warn("Migration to version " + migration.version + ". " + check.description + ": " + reply.result());
+                promise.complete();
+            }
+        });
+        return promise.future();
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final List<String> statements;
+        private final List<Check> checks = new ArrayList<>();
+
+        private Migration(int version, String description, String... statements){
+            this.version = version;
+            this.description = description;
+            this.statements = Arrays.asList(statements);
+        }
+
+        /**
+         * Abort the migration if query returns any rows.
+         */
+        private Migration abortIf(String description, String query){
+            checks.add(new Check(description, query, true));
+            return this;
+        }
+
+        /**
+         * Log the rows query returns, the rows the migration removes.
+         */
+        private Migration logRemoved(String description, String query){
+            checks.add(new Check(description, query, false));
+            return this;
+        }
+    }
+
+    private static class Check {
+        private final String description;
+        private final String query;
+        private final boolean abort;
+
+        private Check(String description, String query, boolean abort){
+            this.description = description;
+            this.query = query;
+            this.abort = abort;
+        }
     }
 }
@@ -3,36 +3,222 @@ package de.fraunhofer.fokus.ids.utils;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.HttpRequest;
 import io.vertx.ext.web.client.WebClient;
+import org.apache.commons.io.IOUtils;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Resolves the JSON-LD context of the IDS information model.
+ * The context is loaded once (on-disk copy of an earlier download, then remote) and served from memory as an
+ * immutable JsonObject. It is refreshed in the background using conditional requests against the remote location.
+ * The bundled classpath copy only declares the namespace prefixes, not the terms of the information model, so it is
+ * served only while no complete context could be obtained, and the remote context is fetched again on the next
+ * resolve after retryInterval. Callers which must not use it, like GraphManager, check isDegraded.
+ */
 public class JsonLdContextResolver {
 
-    WebClient webClient;
-    private URL SUPPORTED_CONTEXT_URL;
+    private final Logger LOGGER = LoggerFactory.getLogger(JsonLdContextResolver.class.getName());
 
-    public JsonLdContextResolver(Vertx vertx){
-        webClient =  WebClient.create(vertx);
-        try {
-            SUPPORTED_CONTEXT_URL =  new URL("https://jira.iais.fraunhofer.de/stash/projects/ICTSL/repos/ids-infomodel-commons/raw/jsonld-context/3.0.0/context.jsonld");
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
+    private static final String DEFAULT_CONTEXT_URL = "https://jira.iais.fraunhofer.de/stash/projects/ICTSL/repos/ids-infomodel-commons/raw/jsonld-context/3.0.0/context.jsonld";
+    private static final String DEFAULT_CACHE_PATH = "/ids/repo/context.jsonld";
+    private static final String BUNDLED_CONTEXT = "jsonld/context.jsonld";
+    private static final long DEFAULT_REFRESH_INTERVAL = 24 * 60 * 60 * 1000L;
+    private static final long DEFAULT_RETRY_INTERVAL = 60 * 1000L;
+
+    private Vertx vertx;
+    private WebClient webClient;
+    private String contextUrl;
+    private String cachePath;
+    private long refreshInterval;
+    private long retryInterval;
+
+    private volatile JsonObject context;
+    private volatile JsonObject bundledContext;
+    private volatile boolean degraded;
+    private volatile long lastAttempt;
+    private volatile String etag;
+    private Promise<JsonObject> pendingFetch;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    public JsonLdContextResolver(Vertx vertx, WebClient webClient, JsonObject config){
+        this.vertx = vertx;
+        this.webClient = webClient;
+        this.contextUrl = config.getString("url", DEFAULT_CONTEXT_URL);
+        this.cachePath = config.getString("cachePath", DEFAULT_CACHE_PATH);
+        this.refreshInterval = config.getLong("refreshInterval", DEFAULT_REFRESH_INTERVAL);
+        this.retryInterval = config.getLong("retryInterval", DEFAULT_RETRY_INTERVAL);
+        loadLocalCopy();
+        refresh(ar -> {});
+        if (refreshInterval > 0) {
+            vertx.setPeriodic(refreshInterval, id -> refresh(ar -> {}));
         }
     }
 
+    /**
+     * Serve the cached context. Only if no copy could be loaded yet, the remote context is fetched. Concurrent callers
+     * share a single pending fetch. While only the bundled copy is available, the remote context is fetched instead
+     * once retryInterval passed since the last attempt.
+     * @param resultHandler the context document containing the "@context" key
+     */
     public void resolve(Handler<AsyncResult<JsonObject>> resultHandler){
-        webClient.get(80, SUPPORTED_CONTEXT_URL.getHost(), SUPPORTED_CONTEXT_URL.getPath())
-                .putHeader("Accept", "application/json")
-                .send(ar -> {
-                    if (ar.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(ar.result().bodyAsJsonObject()));
-                    } else {
-                        resultHandler.handle(Future.failedFuture(ar.cause()));
-                    }
+        JsonObject current = context;
+        if (current != null && !(degraded && System.currentTimeMillis() - lastAttempt >= retryInterval)) {
+            hits.incrementAndGet();
+            resultHandler.handle(Future.succeededFuture(current));
+        } else {
+            misses.incrementAndGet();
+            refresh(resultHandler);
+        }
+    }
+
+    /**
+     * @return whether the context is the bundled copy, which lacks the term definitions of the information model
+     */
+    public boolean isDegraded(JsonObject context){
+        return context != null && context == bundledContext;
+    }
+
+    public JsonObject metrics(){
+        return new JsonObject()
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("refreshes", refreshes.get())
+                .put("notModified", notModified.get())
+                .put("refreshFailures", refreshFailures.get())
+                .put("loaded", context != null)
+                .put("degraded", degraded)
+                .put("etag", etag);
+    }
+
+    private synchronized void refresh(Handler<AsyncResult<JsonObject>> resultHandler){
+        if (pendingFetch != null) {
+            pendingFetch.future().setHandler(resultHandler);
+            return;
+        }
+        Promise<JsonObject> fetch = Promise.promise();
+        pendingFetch = fetch;
+        lastAttempt = System.currentTimeMillis();
+        fetch.future().setHandler(resultHandler);
+
+        HttpRequest<Buffer> request = webClient.getAbs(contextUrl)
+                .putHeader("Accept", "application/json");
+        if (etag != null && context != null && !degraded) {
+            request.putHeader("If-None-Match", etag);
+        }
+        request.send(ar -> {
+            if (ar.succeeded() && ar.result().statusCode() == 304) {
+                notModified.incrementAndGet();
+                completeFetch(fetch, Future.succeededFuture(context));
+            } else if (ar.succeeded() && ar.result().statusCode() == 200) {
+                try {
+                    JsonObject fetched = freeze(ar.result().bodyAsJsonObject());
+                    context = fetched;
+                    degraded = false;
+                    etag = ar.result().getHeader("ETag");
+                    refreshes.incrementAndGet();
+                    vertx.fileSystem().writeFile(cachePath, ar.result().body(), write -> {
+                        if (write.failed()) {
+                            LOGGER.info("JSON-LD context could not be written to " + cachePath);
+                        }
+                    });
+                    LOGGER.debug("JSON-LD context refreshed: " + metrics());
+                    completeFetch(fetch, Future.succeededFuture(fetched));
+                } catch (Exception e) {
+                    refreshFailed(fetch, e);
+                }
+            } else {
+                refreshFailed(fetch, ar.succeeded() ? new IllegalStateException(ar.result().statusCode() + " - " + ar.result().statusMessage()) : ar.cause());
+            }
         });
     }
+
+    private void refreshFailed(Promise<JsonObject> fetch, Throwable cause){
+        refreshFailures.incrementAndGet();
+        if (context == null) {
+            loadBundledCopy();
+        }
+        if (degraded) {
+            LOGGER.warn("JSON-LD context could not be fetched, serving the bundled copy, which lacks the term definitions of the information model. " + cause.getMessage());
+            completeFetch(fetch, Future.succeededFuture(context));
+        } else if (context != null) {
+            LOGGER.info("JSON-LD context refresh failed, serving cached copy. " + cause.getMessage());
+            completeFetch(fetch, Future.succeededFuture(context));
+        } else {
+            LOGGER.error("JSON-LD context could not be resolved.", cause);
+            completeFetch(fetch, Future.failedFuture(cause));
+        }
+    }
+
+    private void completeFetch(Promise<JsonObject> fetch, AsyncResult<JsonObject> result){
+        synchronized (this) {
+            pendingFetch = null;
+        }
+        fetch.handle(result);
+    }
+
+    private void loadLocalCopy(){
+        try {
+            if (vertx.fileSystem().existsBlocking(cachePath)) {
+                context = freeze(new JsonObject(vertx.fileSystem().readFileBlocking(cachePath)));
+                LOGGER.info("JSON-LD context loaded from " + cachePath);
+                return;
+            }
+        } catch (Exception e) {
+            LOGGER.info("JSON-LD context copy at " + cachePath + " is not readable. " + e.getMessage());
+        }
+    }
+
+    private synchronized void loadBundledCopy(){
+        if (context != null) {
+            return;
+        }
+        try (InputStream in = JsonLdContextResolver.class.getClassLoader().getResourceAsStream(BUNDLED_CONTEXT)) {
+            if (in != null) {
+                bundledContext = freeze(new JsonObject(IOUtils.toString(in, StandardCharsets.UTF_8)));
+                context = bundledContext;
+                degraded = true;
+                LOGGER.warn("Bundled JSON-LD context loaded, graphs are parsed with a degraded context.");
+            }
+        } catch (Exception e) {
+            LOGGER.error("Bundled JSON-LD context could not be loaded.", e);
+        }
+    }
+
+    private static JsonObject freeze(JsonObject jsonObject){
+        Map<String, Object> map = new LinkedHashMap<>();
+        jsonObject.getMap().forEach((key, value) -> map.put(key, freezeValue(value)));
+        return new JsonObject(Collections.unmodifiableMap(map));
+    }
+
+    private static Object freezeValue(Object value){
+        if (value instanceof JsonObject) {
+            return freeze((JsonObject) value);
+        } else if (value instanceof Map) {
+            return freeze(new JsonObject((Map<String, Object>) value));
+        } else if (value instanceof JsonArray || value instanceof List) {
+            List<Object> list = new ArrayList<>();
+            for (Object item : value instanceof JsonArray ? ((JsonArray) value).getList() : (List<Object>) value) {
+                list.add(freezeValue(item));
+            }
+            return new JsonArray(Collections.unmodifiableList(list));
+        }
+        return value;
+    }
 }
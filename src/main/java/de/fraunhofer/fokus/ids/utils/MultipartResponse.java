@@ -0,0 +1,92 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * multipart/form-data body of an IDS response. The parts are written one after another to the response, so payloads
+ * are neither copied into an intermediate entity nor, for streamed parts, held in memory as a whole. A response with
+ * streamed parts can only be written once.
+ */
+public class MultipartResponse {
+
+    private static final String CRLF = "\r\n";
+
+    private final String boundary = UUID.randomUUID().toString();
+    private final List<Part> parts = new ArrayList<>();
+
+    public MultipartResponse addPart(String name, String contentType, String content) {
+        return addPart(name, contentType, Buffer.buffer(content, StandardCharsets.UTF_8.name()));
+    }
+
+    public MultipartResponse addPart(String name, String contentType, Buffer content) {
+        parts.add(new Part(name, contentType, content, null));
+        return this;
+    }
+
+    public MultipartResponse addPart(String name, String contentType, ReadStream<Buffer> content) {
+        parts.add(new Part(name, contentType, null, content));
+        return this;
+    }
+
+    public String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * Write all parts and the closing boundary. The stream itself is not ended, the caller decides how to finish it.
+     */
+    public void writeTo(WriteStream<Buffer> out, Handler<AsyncResult<Void>> resultHandler) {
+        writePart(out, 0, resultHandler);
+    }
+
+    private void writePart(WriteStream<Buffer> out, int index, Handler<AsyncResult<Void>> resultHandler) {
+        if (index == parts.size()) {
+            out.write(Buffer.buffer("--" + boundary + "--" + CRLF));
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        Part part = parts.get(index);
+        out.write(Buffer.buffer("--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"" + part.name + "\"" + CRLF
+                + "Content-Type: " + part.contentType + "; charset=UTF-8" + CRLF
+                + CRLF, StandardCharsets.UTF_8.name()));
+        if (part.buffer != null) {
+            out.write(part.buffer);
+            out.write(Buffer.buffer(CRLF));
+            writePart(out, index + 1, resultHandler);
+        } else {
+            part.stream.pipe().endOnComplete(false).to(out, ar -> {
+                if (ar.succeeded()) {
+                    out.write(Buffer.buffer(CRLF));
+                    writePart(out, index + 1, resultHandler);
+                } else {
+                    resultHandler.handle(Future.failedFuture(ar.cause()));
+                }
+            });
+        }
+    }
+
+    private static class Part {
+        private final String name;
+        private final String contentType;
+        private final Buffer buffer;
+        private final ReadStream<Buffer> stream;
+
+        private Part(String name, String contentType, Buffer buffer, ReadStream<Buffer> stream) {
+            this.name = name;
+            this.contentType = contentType;
+            this.buffer = buffer;
+            this.stream = stream;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import org.apache.jena.atlas.io.AWriter;
+import org.apache.jena.atlas.io.IO;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.out.NodeFormatter;
+import org.apache.jena.riot.out.NodeFormatterNT;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+import java.io.OutputStream;
+
+/**
+ * Serializes a model as N-Triples while it is read. Each emitted buffer holds at most chunkSize triples, so only one
+ * chunk of the serialization is held in memory at a time and the consumer's back pressure pauses the serialization.
+ */
+class NTriplesReadStream implements ReadStream<Buffer> {
+
+    private static final NodeFormatter FORMATTER = new NodeFormatterNT();
+
+    private final Context context;
+    private final int chunkSize;
+    private final ExtendedIterator<Triple> triples;
+
+    private Handler<Buffer> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+    private long demand = Long.MAX_VALUE;
+    private boolean emitting;
+    private boolean ended;
+
+    NTriplesReadStream(Model model, int chunkSize) {
+        this.context = Vertx.currentContext();
+        this.chunkSize = Math.max(1, chunkSize);
+        this.triples = model.getGraph().find();
+    }
+
+    @Override
+    public synchronized NTriplesReadStream exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public synchronized NTriplesReadStream handler(Handler<Buffer> handler) {
+        this.handler = handler;
+        if (handler != null) {
+            schedule();
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized NTriplesReadStream pause() {
+        demand = 0L;
+        return this;
+    }
+
+    @Override
+    public synchronized NTriplesReadStream resume() {
+        return fetch(Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized NTriplesReadStream fetch(long amount) {
+        demand = demand + amount < 0 ? Long.MAX_VALUE : demand + amount;
+        schedule();
+        return this;
+    }
+
+    @Override
+    public synchronized NTriplesReadStream endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    /**
+     * Emission runs asynchronously, so handlers registered in the same call chain as handler() are in place before the
+     * first chunk is delivered.
+     */
+    private void schedule() {
+        if (emitting || ended) {
+            return;
+        }
+        emitting = true;
+        if (context != null) {
+            context.runOnContext(v -> emit());
+        } else {
+            emit();
+        }
+    }
+
+    private void emit() {
+        while (true) {
+            Handler<Buffer> dataHandler;
+            Buffer chunk;
+            synchronized (this) {
+                if (ended || handler == null || demand == 0L) {
+                    emitting = false;
+                    return;
+                }
+                if (!triples.hasNext()) {
+                    ended = true;
+                    emitting = false;
+                    break;
+                }
+                try {
+                    chunk = nextChunk();
+                } catch (Exception e) {
+                    ended = true;
+                    emitting = false;
+                    triples.close();
+                    if (exceptionHandler != null) {
+                        exceptionHandler.handle(e);
+                    }
+                    return;
+                }
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+                dataHandler = handler;
+            }
+            dataHandler.handle(chunk);
+        }
+        triples.close();
+        Handler<Void> end;
+        synchronized (this) {
+            end = endHandler;
+        }
+        if (end != null) {
+            end.handle(null);
+        }
+    }
+
+    private Buffer nextChunk() {
+        Buffer buffer = Buffer.buffer(chunkSize * 128);
+        AWriter writer = writer(buffer);
+        for (int i = 0; i < chunkSize && triples.hasNext(); i++) {
+            write(writer, triples.next());
+        }
+        writer.flush();
+        return buffer;
+    }
+
+    /**
+     * Append all triples of the model to the buffer. Blank node labels are derived from the blank nodes themselves,
+     * so the triples of different models can be combined without their blank nodes clashing.
+     */
+    static Buffer write(Model model, Buffer buffer) {
+        AWriter writer = writer(buffer);
+        ExtendedIterator<Triple> iterator = model.getGraph().find();
+        try {
+            while (iterator.hasNext()) {
+                write(writer, iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        writer.flush();
+        return buffer;
+    }
+
+    private static AWriter writer(Buffer buffer) {
+        return IO.wrapUTF8(new OutputStream() {
+            @Override
+            public void write(int b) {
+                buffer.appendByte((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                buffer.appendBytes(b, off, len);
+            }
+        });
+    }
+
+    private static void write(AWriter writer, Triple triple) {
+        FORMATTER.format(writer, triple.getSubject());
+        writer.print(' ');
+        FORMATTER.format(writer, triple.getPredicate());
+        writer.print(' ');
+        FORMATTER.format(writer, triple.getObject());
+        writer.print(" .\n");
+    }
+}
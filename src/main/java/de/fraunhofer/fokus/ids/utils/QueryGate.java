@@ -0,0 +1,273 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import de.fraunhofer.iais.eis.RejectionReason;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for queries of connectors. Queries are parsed, updates and unparsable queries are rejected and
+ * SELECT, CONSTRUCT and DESCRIBE queries without a LIMIT, or with a larger one, are limited to maxLimit. Each
+ * connector may run maxConcurrent queries at once, further queries wait in a queue of maxQueued entries for at most
+ * queueTimeout ms, and ratePerSecond limits how many queries a connector may start, including queries answered from
+ * the cache.
+ */
+public class QueryGate {
+
+    private static final long DEFAULT_MAX_LIMIT = 10000L;
+    private static final long DEFAULT_TIMEOUT = 30 * 1000L;
+    private static final int DEFAULT_MAX_CONCURRENT = 4;
+    private static final int DEFAULT_MAX_QUEUED = 16;
+    private static final long DEFAULT_QUEUE_TIMEOUT = 10 * 1000L;
+    private static final double DEFAULT_RATE_PER_SECOND = 10;
+
+    private Vertx vertx;
+    private long maxLimit;
+    private boolean rejectUnbounded;
+    private long timeout;
+    private int maxConcurrent;
+    private int maxQueued;
+    private long queueTimeout;
+    private double ratePerSecond;
+    private double burst;
+
+    private final Map<String, ConnectorState> connectors = new HashMap<>();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong admittedCached = new AtomicLong();
+    private final AtomicLong limited = new AtomicLong();
+    private final AtomicLong rejectedMalformed = new AtomicLong();
+    private final AtomicLong rejectedUnbounded = new AtomicLong();
+    private final AtomicLong rejectedRate = new AtomicLong();
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+    private final AtomicLong rejectedQueueTimeout = new AtomicLong();
+
+    /**
+     * @param config maxLimit: LIMIT applied to unbounded queries, rejectUnbounded: reject them instead, timeout:
+     *               execution timeout in ms passed to the triple store, maxConcurrent, maxQueued and queueTimeout (ms):
+     *               per connector, ratePerSecond and burst: per connector, a ratePerSecond of 0 disables rate limiting
+     */
+    public QueryGate(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.maxLimit = config.getLong("maxLimit", DEFAULT_MAX_LIMIT);
+        this.rejectUnbounded = config.getBoolean("rejectUnbounded", false);
+        this.timeout = config.getLong("timeout", DEFAULT_TIMEOUT);
+        this.maxConcurrent = config.getInteger("maxConcurrent", DEFAULT_MAX_CONCURRENT);
+        this.maxQueued = config.getInteger("maxQueued", DEFAULT_MAX_QUEUED);
+        this.queueTimeout = config.getLong("queueTimeout", DEFAULT_QUEUE_TIMEOUT);
+        this.ratePerSecond = config.getDouble("ratePerSecond", DEFAULT_RATE_PER_SECOND);
+        this.burst = config.getDouble("burst", Math.max(1, ratePerSecond));
+    }
+
+    /**
+     * @return the query to run, limited to maxLimit results
+     * @throws RejectedQueryException if the query cannot be parsed or is unbounded and rejectUnbounded is set
+     */
+    public String prepare(String queryString) {
+        Query query;
+        try {
+            query = QueryFactory.create(queryString);
+        } catch (QueryParseException e) {
+            rejectedMalformed.incrementAndGet();
+            throw new RejectedQueryException(RejectionReason.BAD_PARAMETERS, "Query could not be parsed. " + e.getMessage());
+        }
+        if (!query.isAskType() && maxLimit > 0 && (!query.hasLimit() || query.getLimit() > maxLimit)) {
+            if (rejectUnbounded) {
+                rejectedUnbounded.incrementAndGet();
+                throw new RejectedQueryException(RejectionReason.TOO_MANY_RESULTS, "Queries must be limited to " + maxLimit + " results.");
+            }
+            query.setLimit(maxLimit);
+            limited.incrementAndGet();
+        }
+        return query.serialize();
+    }
+
+    public long timeout() {
+        return timeout;
+    }
+
+    /**
+     * Count a query answered from the cache against the rate of the connector. It takes no slot, since it does not
+     * reach the triple store.
+     * @throws RejectedQueryException if the connector exceeded its query rate
+     */
+    public void admitCached(String connectorId) {
+        synchronized (connectors) {
+            ConnectorState state = connectors.computeIfAbsent(connectorId, id -> new ConnectorState());
+            if (!state.takeToken()) {
+                rejectedRate.incrementAndGet();
+                throw new RejectedQueryException(RejectionReason.TEMPORARILY_NOT_AVAILABLE, "Query rate exceeded.");
+            }
+        }
+        admittedCached.incrementAndGet();
+    }
+
+    /**
+     * Wait for a free slot of the connector. The permit has to be released once the query finished.
+     */
+    public void acquire(String connectorId, Handler<AsyncResult<Permit>> resultHandler) {
+        ConnectorState state;
+        Promise<Permit> waiting = null;
+        synchronized (connectors) {
+            state = connectors.computeIfAbsent(connectorId, id -> new ConnectorState());
+            if (!state.takeToken()) {
+                rejectedRate.incrementAndGet();
+                resultHandler.handle(Future.failedFuture(new RejectedQueryException(RejectionReason.TEMPORARILY_NOT_AVAILABLE, "Query rate exceeded.")));
+                return;
+            }
+            if (state.active < maxConcurrent) {
+                state.active++;
+            } else if (state.queue.size() < maxQueued) {
+                waiting = Promise.promise();
+                state.queue.add(waiting);
+            } else {
+                rejectedQueueFull.incrementAndGet();
+                resultHandler.handle(Future.failedFuture(new RejectedQueryException(RejectionReason.TEMPORARILY_NOT_AVAILABLE, "Too many queries queued.")));
+                return;
+            }
+        }
+        if (waiting == null) {
+            admitted.incrementAndGet();
+            resultHandler.handle(Future.succeededFuture(new Permit(connectorId)));
+            return;
+        }
+        Promise<Permit> queued = waiting;
+        long timer = vertx.setTimer(Math.max(1, queueTimeout), id -> {
+            boolean removed;
+            synchronized (connectors) {
+                removed = state.queue.remove(queued);
+            }
+            if (removed) {
+                rejectedQueueTimeout.incrementAndGet();
+                queued.fail(new RejectedQueryException(RejectionReason.TEMPORARILY_NOT_AVAILABLE, "Query waited too long."));
+            }
+        });
+        queued.future().setHandler(ar -> {
+            vertx.cancelTimer(timer);
+            resultHandler.handle(ar);
+        });
+    }
+
+    public JsonObject metrics() {
+        JsonObject metrics = new JsonObject()
+                .put("admitted", admitted.get())
+                .put("admittedCached", admittedCached.get())
+                .put("limited", limited.get())
+                .put("rejectedMalformed", rejectedMalformed.get())
+                .put("rejectedUnbounded", rejectedUnbounded.get())
+                .put("rejectedRate", rejectedRate.get())
+                .put("rejectedQueueFull", rejectedQueueFull.get())
+                .put("rejectedQueueTimeout", rejectedQueueTimeout.get());
+        int active = 0;
+        int queued = 0;
+        synchronized (connectors) {
+            for (ConnectorState state : connectors.values()) {
+                active += state.active;
+                queued += state.queue.size();
+            }
+        }
+        return metrics.put("active", active).put("queueDepth", queued);
+    }
+
+    private void release(String connectorId) {
+        Promise<Permit> next = null;
+        synchronized (connectors) {
+            ConnectorState state = connectors.get(connectorId);
+            if (state == null) {
+                return;
+            }
+            next = state.queue.poll();
+            if (next == null) {
+                state.active--;
+                if (state.idle()) {
+                    connectors.remove(connectorId);
+                }
+            }
+        }
+        if (next != null) {
+            admitted.incrementAndGet();
+            next.complete(new Permit(connectorId));
+        }
+    }
+
+    public class Permit {
+        private final String connectorId;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String connectorId) {
+            this.connectorId = connectorId;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                QueryGate.this.release(connectorId);
+            }
+        }
+
+        /**
+         * Release the permit once the result was read completely or failed, also if nobody listens to the end of the
+         * stream anymore.
+         */
+        public ReadStream<Buffer> releaseOnEnd(ReadStream<Buffer> result) {
+            return new ReleasingReadStream(result, this::release);
+        }
+    }
+
+    public static class RejectedQueryException extends RuntimeException {
+        private final RejectionReason rejectionReason;
+
+        RejectedQueryException(RejectionReason rejectionReason, String message) {
+            super(message);
+            this.rejectionReason = rejectionReason;
+        }
+
+        public RejectionReason getRejectionReason() {
+            return rejectionReason;
+        }
+    }
+
+    private class ConnectorState {
+        private int active;
+        private final Deque<Promise<Permit>> queue = new ArrayDeque<>();
+        private double tokens = burst;
+        private long refilledAt = System.nanoTime();
+
+        private boolean takeToken() {
+            if (ratePerSecond <= 0) {
+                return true;
+            }
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private boolean idle() {
+            refill();
+            return active == 0 && queue.isEmpty() && (ratePerSecond <= 0 || tokens >= burst);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * ratePerSecond);
+            refilledAt = now;
+        }
+    }
+}
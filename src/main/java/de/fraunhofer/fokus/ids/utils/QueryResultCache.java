@@ -0,0 +1,218 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of SPARQL queries, keyed by the normalized query and the requested media type. Entries are evicted least
+ * recently used once the cached bytes exceed maxBytes. Every change of the stored graphs bumps the generation and
+ * drops all entries; results of queries that were started in an older generation are not stored.
+ */
+public class QueryResultCache {
+
+    private static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024L;
+    private static final long DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024L;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    private final LinkedHashMap<String, Buffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param config maxBytes: size of all cached results, 0 disables the cache, maxEntryBytes: larger results are not
+     *               cached
+     */
+    public QueryResultCache(JsonObject config) {
+        this.maxBytes = config.getLong("maxBytes", DEFAULT_MAX_BYTES);
+        this.maxEntryBytes = Math.min(config.getLong("maxEntryBytes", DEFAULT_MAX_ENTRY_BYTES), maxBytes);
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Called whenever graphs were written or deleted.
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+            bytes = 0;
+        }
+        invalidations.incrementAndGet();
+    }
+
+    public Buffer get(String query, String accept) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        Buffer result;
+        synchronized (entries) {
+            result = entries.get(key(query, accept));
+        }
+        (result != null ? hits : misses).incrementAndGet();
+        return result;
+    }
+
+    public void put(String query, String accept, long queryGeneration, Buffer result) {
+        long size = result.length();
+        if (size > maxEntryBytes) {
+            return;
+        }
+        String key = key(query, accept);
+        synchronized (entries) {
+            if (queryGeneration != generation.get()) {
+                return;
+            }
+            Buffer previous = entries.put(key, result);
+            bytes += size + key.length() - (previous != null ? previous.length() + key.length() : 0);
+            Iterator<Map.Entry<String, Buffer>> iterator = entries.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Buffer> eldest = iterator.next();
+                bytes -= eldest.getValue().length() + eldest.getKey().length();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Pass the result through and store it once it was read completely, unless it grew larger than maxEntryBytes.
+     */
+    public ReadStream<Buffer> recording(String query, String accept, long queryGeneration, ReadStream<Buffer> result) {
+        if (maxBytes <= 0) {
+            return result;
+        }
+        return new RecordingReadStream(query, accept, queryGeneration, result);
+    }
+
+    public JsonObject metrics() {
+        JsonObject metrics = new JsonObject()
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("evictions", evictions.get())
+                .put("invalidations", invalidations.get())
+                .put("generation", generation.get());
+        synchronized (entries) {
+            metrics.put("entries", entries.size()).put("bytes", bytes);
+        }
+        return metrics;
+    }
+
+    private String key(String query, String accept) {
+        return accept + '\n' + normalize(query);
+    }
+
+    /**
+     * Collapses whitespace outside of literals and IRIs, so queries differing only in layout share an entry.
+     */
+    static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder(query.length());
+        char quote = 0;
+        boolean whitespace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                normalized.append(c);
+                if (c == '\\' && i + 1 < query.length()) {
+                    normalized.append(query.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                whitespace = normalized.length() > 0;
+            } else {
+                if (whitespace) {
+                    normalized.append(' ');
+                    whitespace = false;
+                }
+                normalized.append(c);
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '<') {
+                    quote = '>';
+                }
+            }
+        }
+        return normalized.toString();
+    }
+
+    private class RecordingReadStream implements ReadStream<Buffer> {
+        private final String query;
+        private final String accept;
+        private final long queryGeneration;
+        private final ReadStream<Buffer> source;
+        private Buffer recorded = Buffer.buffer();
+
+        private RecordingReadStream(String query, String accept, long queryGeneration, ReadStream<Buffer> source) {
+            this.query = query;
+            this.accept = accept;
+            this.queryGeneration = queryGeneration;
+            this.source = source;
+        }
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+            source.exceptionHandler(handler == null ? null : t -> {
+                recorded = null;
+                handler.handle(t);
+            });
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+            source.handler(handler == null ? null : buffer -> {
+                if (recorded != null) {
+                    recorded = recorded.length() + buffer.length() > maxEntryBytes ? null : recorded.appendBuffer(buffer);
+                }
+                handler.handle(buffer);
+            });
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+            source.endHandler(endHandler == null ? null : v -> {
+                if (recorded != null) {
+                    put(query, accept, queryGeneration, recorded);
+                }
+                endHandler.handle(v);
+            });
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            source.pause();
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            source.resume();
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            source.fetch(amount);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Runs a release action once the stream ended or failed, also if nobody listens to the end of the stream anymore.
+ * The action may be run more than once and has to be idempotent.
+ */
+class ReleasingReadStream implements ReadStream<Buffer> {
+
+    private final ReadStream<Buffer> source;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+
+    ReleasingReadStream(ReadStream<Buffer> source, Runnable release) {
+        this.source = source;
+        source.endHandler(v -> {
+            release.run();
+            Handler<Void> handler = endHandler;
+            if (handler != null) {
+                handler.handle(v);
+            }
+        });
+        source.exceptionHandler(t -> {
+            release.run();
+            Handler<Throwable> handler = exceptionHandler;
+            if (handler != null) {
+                handler.handle(t);
+            }
+        });
+    }
+
+    @Override
+    public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+        source.handler(handler);
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> pause() {
+        source.pause();
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> resume() {
+        source.resume();
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> fetch(long amount) {
+        source.fetch(amount);
+        return this;
+    }
+}
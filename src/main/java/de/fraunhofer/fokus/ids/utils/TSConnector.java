@@ -6,55 +6,67 @@ import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.ReplyException;
 import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.web.client.HttpRequest;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.circuitbreaker.CircuitBreaker;
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFParser;
 import org.apache.jena.riot.RDFParserBuilder;
+import org.apache.jena.riot.out.NodeFmtLib;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.StringWriter;
-import java.util.HashMap;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Random;
+import java.util.function.Supplier;
 
-public class TSConnector {
+public class TSConnector implements TripleStore {
+    private Vertx vertx;
     private WebClient client;
+    private HttpClientPool pool;
     private final Logger LOGGER = LoggerFactory.getLogger(TSConnector.class.getName());
 
     private String uri;
-    private Map<String, String> values = new HashMap();
-
-    private String username;
-    private String password;
+    private DigestAuthentication digestAuthentication;
     private String dataEndpoint;
     private String queryEndpoint;
+    private String updateEndpoint;
+    private int uploadChunkSize;
+    private int maxBatchBytes;
 
     private CircuitBreaker breaker;
 
-    public static TSConnector create(WebClient client, CircuitBreaker breaker,JsonObject config) {
-        return new TSConnector(client, breaker,config);
+    public static TSConnector create(Vertx vertx, HttpClientPool pool, CircuitBreaker breaker,JsonObject config) {
+        return new TSConnector(vertx, pool, breaker,config);
     }
 
-    private TSConnector(WebClient client, CircuitBreaker breaker, JsonObject config) {
-        this.client = client;
+    private TSConnector(Vertx vertx, HttpClientPool pool, CircuitBreaker breaker, JsonObject config) {
+        this.vertx = vertx;
+        this.pool = pool;
+        this.client = pool.webClient();
         this.breaker = breaker;
         this.uri = config.getString("address");
-        this.username = config.getString("user");
-        this.password = config.getString("password");
+        this.digestAuthentication = new DigestAuthentication(config.getString("user"), config.getString("password"));
         this.dataEndpoint = config.getString("dataEndpoint", "/sparql-graph-crud-auth");
         this.queryEndpoint = config.getString("queryEndpoint", "/sparql");
+        this.updateEndpoint = config.getString("updateEndpoint", "/sparql-auth");
+        this.uploadChunkSize = config.getInteger("uploadChunkSize", 1000);
+        this.maxBatchBytes = config.getInteger("maxBatchBytes", 1024 * 1024);
     }
 
     public static Lang mimeTypeToLang(String dataMimeType) {
@@ -126,6 +138,7 @@ public class TSConnector {
         return lang;
     }
 
+    @Override
     public void getGraph(String graphName, Handler<AsyncResult<String>> handler) {
         HttpRequest<Buffer> request = client
                 .getAbs(uri + dataEndpoint)
@@ -152,7 +165,8 @@ public class TSConnector {
         });
     }
 
-    public void deleteGraph(String graphName, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
+    @Override
+    public void deleteGraph(String graphName, Handler<AsyncResult<Void>> handler) {
         HttpRequest<Buffer> request = client
                 .deleteAbs(uri + dataEndpoint)
                 .addQueryParam("graph", graphName);
@@ -172,21 +186,24 @@ public class TSConnector {
         });
     }
 
-    public void putGraph(String graph , Model model,Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
+    /**
+     * Upload the model as N-Triples. The body is serialized while it is sent, chunk by chunk, instead of being
+     * materialized up front. Authentication challenges and circuit breaker retries serialize the model again.
+     */
+    @Override
+    public void putGraph(String graph , Model model,Handler<AsyncResult<Void>> handler) {
         HttpRequest<Buffer> request = client
                 .putAbs(uri + dataEndpoint)
                 .putHeader("Content-Type", "application/n-triples")
                 .addQueryParam("graph", graph);
-        StringWriter writer = new StringWriter();
-        RDFDataMgr.write(writer, model, Lang.NTRIPLES);
-        String output = writer.toString();
+        Supplier<ReadStream<Buffer>> body = () -> new NTriplesReadStream(model, uploadChunkSize);
 
         if (breaker != null) {
-            breaker.<HttpResponse<Buffer>>execute(promise -> sendBuffer(request, HttpMethod.PUT, Buffer.buffer(output), promise))
+            breaker.<HttpResponse<Buffer>>execute(promise -> sendStream(request, HttpMethod.PUT, body, promise))
                     .setHandler(ar -> {
                         if (ar.succeeded()) {
                             LOGGER.info("send buffer to viruoso succeeded");
-                            handler.handle(Future.succeededFuture(ar.result()));
+                            handler.handle(Future.succeededFuture());
                         } else {
                             LOGGER.info("send buffer to viruoso failed "+ar.cause());
                             handler.handle(Future.failedFuture(ar.cause()));
@@ -194,10 +211,10 @@ public class TSConnector {
                     });
         }else {
             Promise<HttpResponse<Buffer>> promise = Promise.promise();
-            sendBuffer(request, HttpMethod.PUT, Buffer.buffer(output), promise);
+            sendStream(request, HttpMethod.PUT, body, promise);
             promise.future().setHandler(ar -> {
                 if (ar.succeeded()) {
-                    handler.handle(Future.succeededFuture(ar.result()));
+                    handler.handle(Future.succeededFuture());
                 } else {
                     handler.handle(Future.failedFuture(ar.cause()));
                 }
@@ -206,15 +223,124 @@ public class TSConnector {
 
     }
 
-    private void sendBuffer(HttpRequest<Buffer> request, HttpMethod method, Buffer buffer, Promise<HttpResponse<Buffer>> promise) {
-        request.sendBuffer(buffer, ar -> {
+    /**
+     * Replace the graphs with SPARQL Update requests of about maxBatchBytes each. Every request clears its graphs and
+     * inserts their triples in one INSERT DATA operation. Requests are sent one after another; graphs larger than
+     * maxBatchBytes are uploaded on their own like in putGraph. The triples of each request are encoded on a worker
+     * thread, never on the event loop.
+     */
+    @Override
+    public void putGraphs(Map<String, Model> graphs, Handler<AsyncResult<Void>> handler) {
+        putBatches(graphs.entrySet().iterator(), null, handler);
+    }
+
+    private void putBatches(Iterator<Map.Entry<String, Model>> graphs, Map.Entry<String, Buffer> carried, Handler<AsyncResult<Void>> handler) {
+        vertx.<Batch>executeBlocking(promise -> {
+            try {
+                promise.complete(nextBatch(graphs, carried));
+            } catch (Exception e) {
+                promise.fail(e);
+            }
+        }, false, encoded -> {
+            if (encoded.failed()) {
+                handler.handle(Future.failedFuture(encoded.cause()));
+                return;
+            }
+            Batch batch = encoded.result();
+            Handler<AsyncResult<Void>> next = ar -> {
+                if (ar.failed()) {
+                    handler.handle(ar);
+                } else if (batch.oversized != null) {
+                    putGraph(batch.oversized.getKey(), batch.oversized.getValue(), oversized -> {
+                        if (oversized.succeeded()) {
+                            putBatches(graphs, null, handler);
+                        } else {
+                            handler.handle(oversized);
+                        }
+                    });
+                } else if (batch.carried != null || graphs.hasNext()) {
+                    putBatches(graphs, batch.carried, handler);
+                } else {
+                    handler.handle(Future.succeededFuture());
+                }
+            };
+            if (batch.triples.isEmpty()) {
+                next.handle(Future.succeededFuture());
+            } else {
+                update(batchUpdate(batch.triples), next);
+            }
+        });
+    }
+
+    /**
+     * Encode graphs until the batch is full, either by the next graph, which is carried over to the next batch, or by
+     * a graph larger than maxBatchBytes, which is uploaded on its own after the batch.
+     */
+    private Batch nextBatch(Iterator<Map.Entry<String, Model>> graphs, Map.Entry<String, Buffer> carried) {
+        Batch batch = new Batch();
+        int batchBytes = 0;
+        if (carried != null) {
+            batch.triples.put(carried.getKey(), carried.getValue());
+            batchBytes = carried.getValue().length();
+        }
+        while (graphs.hasNext()) {
+            Map.Entry<String, Model> graph = graphs.next();
+            Buffer triples = NTriplesReadStream.write(graph.getValue(), Buffer.buffer());
+            if (triples.length() > maxBatchBytes) {
+                batch.oversized = graph;
+                return batch;
+            }
+            if (!batch.triples.isEmpty() && batchBytes + triples.length() > maxBatchBytes) {
+                batch.carried = new AbstractMap.SimpleImmutableEntry<>(graph.getKey(), triples);
+                return batch;
+            }
+            batch.triples.put(graph.getKey(), triples);
+            batchBytes += triples.length();
+        }
+        return batch;
+    }
+
+    private Buffer batchUpdate(Map<String, Buffer> batch) {
+        Buffer update = Buffer.buffer();
+        batch.keySet().forEach(graphName -> update.appendString("CLEAR SILENT GRAPH " + graphIri(graphName) + " ;\n"));
+        update.appendString("INSERT DATA {\n");
+        batch.forEach((graphName, triples) -> update
+                .appendString("GRAPH " + graphIri(graphName) + " {\n")
+                .appendBuffer(triples)
+                .appendString("}\n"));
+        return update.appendString("}\n");
+    }
+
+    private String graphIri(String graphName) {
+        return NodeFmtLib.str(NodeFactory.createURI(graphName));
+    }
+
+    private void update(Buffer update, Handler<AsyncResult<Void>> handler) {
+        HttpRequest<Buffer> request = client
+                .postAbs(uri + updateEndpoint)
+                .putHeader("Content-Type", "application/sparql-update");
+        Supplier<ReadStream<Buffer>> body = () -> new BufferReadStream(update);
+
+        if (breaker != null) {
+            breaker.<HttpResponse<Buffer>>execute(promise -> sendStream(request, HttpMethod.POST, body, promise))
+                    .setHandler(ar -> handler.handle(ar.mapEmpty()));
+        } else {
+            Promise<HttpResponse<Buffer>> promise = Promise.promise();
+            sendStream(request, HttpMethod.POST, body, promise);
+            promise.future().setHandler(ar -> handler.handle(ar.mapEmpty()));
+        }
+    }
+
+    private void sendStream(HttpRequest<Buffer> request, HttpMethod method, Supplier<ReadStream<Buffer>> body, Promise<HttpResponse<Buffer>> promise) {
+        boolean authorized = authorize(request, method);
+        Runnable done = pool.started();
+        request.sendStream(body.get(), ar -> {
+            done.run();
             if (ar.succeeded()) {
                 HttpResponse<Buffer> response = ar.result();
                 if (response.statusCode() == 401) {
-                    String authenticate = authenticate(response.getHeader("WWW-Authenticate"), uri, method.name(), username, password);
-                    if (authenticate != null) {
-                        request.putHeader("Authorization", authenticate);
-                        sendBuffer(request, method, buffer, promise);
+                    if (digestAuthentication.challenge(response.getHeader("WWW-Authenticate"), authorized)) {
+                        sendStream(request, method, body, promise);
                     } else {
                         promise.fail("Could not authenticate");
                     }
@@ -230,13 +356,14 @@ public class TSConnector {
     }
 
     private void send(HttpRequest<Buffer> request, HttpMethod method, Promise<HttpResponse<Buffer>> promise) {
+        boolean authorized = authorize(request, method);
+        Runnable done = pool.started();
         request.send(ar -> {
+            done.run();
             if (ar.succeeded()) {
                 HttpResponse<Buffer> response = ar.result();
                 if (response.statusCode() == 401) {
-                    String authenticate = authenticate(response.getHeader("WWW-Authenticate"), uri, method.name(), username, password);
-                    if (authenticate != null) {
-                        request.putHeader("Authorization", authenticate);
+                    if (digestAuthentication.challenge(response.getHeader("WWW-Authenticate"), authorized)) {
                         send(request, method, promise);
                     } else {
                         promise.fail("Could not authenticate");
@@ -252,57 +379,16 @@ public class TSConnector {
         });
     }
 
-    private String auth(String uri, String method, String username, String password) {
-        if (this.values.isEmpty()) {
-            return null;
-        } else {
-            long nc = 0L;
-            String nonce = (String)this.values.get("nonce");
-            String realm = (String)this.values.get("realm");
-            byte[] cnonceBytes = new byte[8];
-            (new Random()).nextBytes(cnonceBytes);
-            String clientNonce = this.digest2HexString(cnonceBytes);
-            String nonceCount = String.format("%08x", ++nc);
-            DigestUtils a = new DigestUtils();
-            String ha1 = (new DigestUtils()).md5Hex(username + ":" + realm + ":" + password);
-            String ha2 = (new DigestUtils()).md5Hex(method + ":" + uri);
-            String response = (new DigestUtils()).md5Hex(ha1 + ":" + nonce + ":" + nonceCount + ":" + clientNonce + ":auth:" + ha2);
-            return "Digest username=\"" + username + "\", realm=\"" + realm + "\", nonce=\"" + nonce + "\", uri=\"" + uri + "\", cnonce=\"" + clientNonce + "\", nc=" + nonceCount + ", qop=auth, response=\"" + response + "\", algorithm=\"MD5\", state=true";
+    /**
+     * Authorize the request with the last Digest challenge, so it does not need to be challenged again.
+     */
+    private boolean authorize(HttpRequest<Buffer> request, HttpMethod method) {
+        String authorization = digestAuthentication.authorization(method.name(), uri);
+        if (authorization == null) {
+            return false;
         }
-    }
-    private String digest2HexString(byte[] digest) {
-        StringBuilder digestString = new StringBuilder();
-        byte[] var3 = digest;
-        int var4 = digest.length;
-
-        for(int var5 = 0; var5 < var4; ++var5) {
-            byte b = var3[var5];
-            int low = b & 15;
-            int hi = (b & 240) >> 4;
-            digestString.append(Integer.toHexString(hi));
-            digestString.append(Integer.toHexString(low));
-        }
-
-        return digestString.toString();
-    }
-
-    private void getValues(String wwwAuthenticate) {
-        if (wwwAuthenticate.startsWith("Digest ")) {
-            String[] pairs = wwwAuthenticate.substring(7).split(",");
-            String[] var3 = pairs;
-            int var4 = pairs.length;
-
-            for(int var5 = 0; var5 < var4; ++var5) {
-                String pair = var3[var5];
-                String[] entry = pair.split("=");
-                this.values.put(entry[0].trim(), entry[1].trim().replaceAll("\"", ""));
-            }
-        }
-    }
-
-    public  String authenticate(String wwwAuthenticate, String uri, String methodName, String username, String password) {
-        getValues(wwwAuthenticate);
-        return auth(uri,methodName,username,password);
+        request.putHeader("Authorization", authorization);
+        return true;
     }
 
     public void query(String query, String accept, Handler<AsyncResult<HttpResponse<Buffer>>> handler) {
@@ -339,4 +425,80 @@ public class TSConnector {
             });
         }
     }
+
+    /**
+     * Run the query and hand over the response as soon as its headers arrived. The response is paused, the caller
+     * consumes the body as a stream and is responsible for reading or resuming it. Retries of the circuit breaker
+     * only cover the time until the response starts. A timeout in ms greater than 0 limits the execution time in the
+     * triple store and the time the response may be idle.
+     */
+    @Override
+    public void queryStream(String query, String accept, long timeout, Handler<AsyncResult<ReadStream<Buffer>>> handler) {
+        String requestUri;
+        try {
+            requestUri = uri + queryEndpoint + "?query=" + URLEncoder.encode(query, StandardCharsets.UTF_8.name())
+                    + (timeout > 0 ? "&timeout=" + timeout : "");
+        } catch (UnsupportedEncodingException e) {
+            handler.handle(Future.failedFuture(e));
+            return;
+        }
+        if (breaker != null) {
+            breaker.<ReadStream<Buffer>>execute(promise -> sendStreamingRequest(requestUri, accept, timeout, promise))
+                    .setHandler(handler);
+        } else {
+            Promise<ReadStream<Buffer>> promise = Promise.promise();
+            sendStreamingRequest(requestUri, accept, timeout, promise);
+            promise.future().setHandler(handler);
+        }
+    }
+
+    private void sendStreamingRequest(String requestUri, String accept, long timeout, Promise<ReadStream<Buffer>> promise) {
+        Runnable done = pool.started();
+        HttpClientRequest request = pool.httpClient().getAbs(requestUri);
+        if (timeout > 0) {
+            request.setTimeout(timeout);
+        }
+        if (accept != null) {
+            request.putHeader("Accept", accept);
+        }
+        String authorization = digestAuthentication.authorization(HttpMethod.GET.name(), uri);
+        if (authorization != null) {
+            request.putHeader("Authorization", authorization);
+        }
+        request.handler(response -> {
+            if (response.statusCode() == 401) {
+                boolean repeat = digestAuthentication.challenge(response.getHeader("WWW-Authenticate"), authorization != null);
+                response.endHandler(v -> {
+                    done.run();
+                    if (repeat) {
+                        sendStreamingRequest(requestUri, accept, timeout, promise);
+                    } else {
+                        promise.tryFail("Could not authenticate");
+                    }
+                });
+            } else if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                response.pause();
+                if (!promise.tryComplete(new ReleasingReadStream(response, done))) {
+                    done.run();
+                    request.reset();
+                }
+            } else {
+                response.bodyHandler(body -> {
+                    done.run();
+                    promise.tryFail(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, response.statusCode(), response.statusMessage()));
+                });
+            }
+        });
+        request.exceptionHandler(t -> {
+            done.run();
+            promise.tryFail(t);
+        });
+        request.end();
+    }
+
+    private static class Batch {
+        private final Map<String, Buffer> triples = new LinkedHashMap<>();
+        private Map.Entry<String, Buffer> carried;
+        private Map.Entry<String, Model> oversized;
+    }
 }
@@ -0,0 +1,42 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import org.apache.jena.rdf.model.Model;
+
+import java.util.Map;
+
+/**
+ * Storage of the named graphs of connectors and resources. Implemented by TSConnector for Virtuoso and by
+ * EmbeddedTripleStore for a local TDB2 dataset.
+ */
+public interface TripleStore {
+
+    /**
+     * @param handler the graph serialized as JSON-LD, failed if the graph does not exist
+     */
+    void getGraph(String graphName, Handler<AsyncResult<String>> handler);
+
+    /**
+     * Replace the graph with the model.
+     */
+    void putGraph(String graphName, Model model, Handler<AsyncResult<Void>> handler);
+
+    /**
+     * Replace each graph with its model, with as few requests as possible. Every graph is replaced as a whole, but if
+     * the batch fails some of the graphs may already be replaced.
+     */
+    void putGraphs(Map<String, Model> graphs, Handler<AsyncResult<Void>> handler);
+
+    void deleteGraph(String graphName, Handler<AsyncResult<Void>> handler);
+
+    /**
+     * Run a SPARQL query over all graphs. The result stream is paused; whoever does not read it has to resume it so
+     * it can be released.
+     *
+     * @param timeout execution timeout in ms, 0 for none
+     */
+    void queryStream(String query, String accept, long timeout, Handler<AsyncResult<ReadStream<Buffer>>> handler);
+}
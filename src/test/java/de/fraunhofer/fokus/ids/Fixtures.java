@@ -0,0 +1,115 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.utils.JsonLdContextResolver;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClient;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Infomodel documents shaped like the output of the IDS serializer, and a context resolver that serves the bundled
+ * context without network access, for tests and benchmarks.
+ */
+public class Fixtures {
+
+    public static final String CONTEXT_URL = "https://jira.iais.fraunhofer.de/stash/projects/ICTSL/repos/ids-infomodel-commons/raw/jsonld-context/3.0.0/context.jsonld";
+
+    private Fixtures() {
+    }
+
+    public static String connectorId(int connector) {
+        return "https://connector" + connector + ".example.org/";
+    }
+
+    public static String resourceId(int connector, int resource) {
+        return connectorId(connector) + "resource/" + resource;
+    }
+
+    /**
+     * A connector with a catalog of the given number of resources.
+     */
+    public static JsonObject connector(int connector, int resources) {
+        JsonArray offer = new JsonArray();
+        for (int i = 0; i < resources; i++) {
+            offer.add(resource(connector, i));
+        }
+        return new JsonObject()
+                .put("@context", CONTEXT_URL)
+                .put("@id", connectorId(connector))
+                .put("@type", "ids:BaseConnector")
+                .put("ids:title", literals("Connector " + connector))
+                .put("ids:description", literals("Connector offering " + resources + " resources"))
+                .put("ids:maintainer", new JsonObject().put("@id", "https://maintainer.example.org/"))
+                .put("ids:curator", new JsonObject().put("@id", "https://curator.example.org/"))
+                .put("ids:outboundModelVersion", "3.1.0")
+                .put("ids:catalog", new JsonObject()
+                        .put("@id", "https://w3id.org/idsa/autogen/catalog/" + connector)
+                        .put("@type", "ids:Catalog")
+                        .put("ids:offer", offer));
+    }
+
+    /**
+     * A resource as a document of its own, as sent with resource messages.
+     */
+    public static JsonObject resourceDocument(int connector, int resource) {
+        return new JsonObject().put("@context", CONTEXT_URL).mergeIn(resource(connector, resource));
+    }
+
+    /**
+     * A resource as nested in the catalog of a connector, without a context of its own.
+     */
+    public static JsonObject resource(int connector, int resource) {
+        return new JsonObject()
+                .put("@id", resourceId(connector, resource))
+                .put("@type", "ids:Resource")
+                .put("ids:title", literals("Resource " + resource))
+                .put("ids:description", literals("Measurements of station " + resource + " of connector " + connector))
+                .put("ids:keyword", literals("traffic", "measurement", "station" + resource))
+                .put("ids:version", "1.0")
+                .put("ids:resourceEndpoint", new JsonArray().add(new JsonObject()
+                        .put("@id", "https://w3id.org/idsa/autogen/staticEndpoint/" + connector + "-" + resource)
+                        .put("@type", "ids:StaticEndpoint")
+                        .put("ids:path", "/data/")
+                        .put("ids:endpointHost", new JsonObject()
+                                .put("@id", "https://w3id.org/idsa/autogen/host/" + connector)
+                                .put("@type", "ids:Host")
+                                .put("ids:accessUrl", new JsonObject().put("@id", connectorId(connector))))
+                        .put("ids:endpointArtifact", new JsonObject()
+                                .put("@id", "https://w3id.org/idsa/autogen/artifact/" + connector + "-" + resource)
+                                .put("@type", "ids:Artifact")
+                                .put("ids:fileName", "station" + resource + ".csv")
+                                .put("ids:creationDate", new JsonObject()
+                                        .put("@value", "2020-06-01T12:00:00.000Z")
+                                        .put("@type", "http://www.w3.org/2001/XMLSchema#dateTimeStamp")))));
+    }
+
+    private static JsonArray literals(String... values) {
+        JsonArray literals = new JsonArray();
+        for (String value : values) {
+            literals.add(new JsonObject().put("@value", value).put("@language", "en"));
+        }
+        return literals;
+    }
+
+    /**
+     * A resolver serving the bundled context as if it was downloaded before. Its remote location is unreachable.
+     */
+    public static JsonLdContextResolver contextResolver(Vertx vertx) throws IOException {
+        File copy = File.createTempFile("context", ".jsonld");
+        copy.deleteOnExit();
+        try (InputStream in = Fixtures.class.getClassLoader().getResourceAsStream("jsonld/context.jsonld")) {
+            Files.write(copy.toPath(), IOUtils.toString(in, StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8));
+        }
+        return new JsonLdContextResolver(vertx, WebClient.create(vertx), new JsonObject()
+                .put("url", "http://127.0.0.1:1/context.jsonld")
+                .put("cachePath", copy.getAbsolutePath())
+                .put("refreshInterval", 0L));
+    }
+}
@@ -0,0 +1,129 @@
+package de.fraunhofer.fokus.ids.manager;
+
+import de.fraunhofer.fokus.ids.Fixtures;
+import de.fraunhofer.fokus.ids.utils.JsonLdContextResolver;
+import de.fraunhofer.fokus.ids.utils.TripleStore;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Graph write of a connector description, from the serialized infomodel object to N-Triples. create parses the
+ * document once with the precompiled context. reparse is the pipeline GraphManager used before: decode the document,
+ * inject the context, encode it again and let Jena parse it, context included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphManagerBenchmark {
+
+    @Param({"1", "20", "100"})
+    public int resources;
+
+    private Vertx vertx;
+    private GraphManager graphManager;
+    private JsonObject context;
+    private String uri;
+    private String json;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        JsonLdContextResolver resolver = Fixtures.contextResolver(vertx);
+        CompletableFuture<JsonObject> resolved = new CompletableFuture<>();
+        resolver.resolve(ar -> resolved.complete(ar.result()));
+        context = resolved.get(10, TimeUnit.SECONDS);
+        graphManager = new GraphManager(vertx, new SerializingTripleStore(), resolver);
+        uri = Fixtures.connectorId(0);
+        json = Fixtures.connector(0, resources).encode();
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Benchmark
+    public long create() throws Exception {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        graphManager.create(uri, json, ar -> {
+            if (ar.succeeded()) {
+                written.complete(null);
+            } else {
+                written.completeExceptionally(ar.cause());
+            }
+        });
+        written.get();
+        return SerializingTripleStore.bytes;
+    }
+
+    @Benchmark
+    public long reparse() {
+        JsonObject document = new JsonObject(json);
+        document.put("@context", context.getJsonObject("@context"));
+        Model model = ModelFactory.createDefaultModel();
+        model.read(new ByteArrayInputStream(document.toString().getBytes(StandardCharsets.UTF_8)), null, "JSON-LD");
+        return SerializingTripleStore.write(model);
+    }
+
+    /**
+     * Serializes the graphs to N-Triples like an upload would, and discards them.
+     */
+    private static class SerializingTripleStore implements TripleStore {
+        private static volatile long bytes;
+
+        private static long write(Model model) {
+            CountingOutputStream out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+            RDFDataMgr.write(out, model, Lang.NTRIPLES);
+            bytes = out.getByteCount();
+            return bytes;
+        }
+
+        @Override
+        public void getGraph(String graphName, Handler<AsyncResult<String>> handler) {
+            handler.handle(Future.failedFuture("not supported"));
+        }
+
+        @Override
+        public void putGraph(String graphName, Model model, Handler<AsyncResult<Void>> handler) {
+            write(model);
+            handler.handle(Future.succeededFuture());
+        }
+
+        @Override
+        public void putGraphs(Map<String, Model> graphs, Handler<AsyncResult<Void>> handler) {
+            graphs.values().forEach(SerializingTripleStore::write);
+            handler.handle(Future.succeededFuture());
+        }
+
+        @Override
+        public void deleteGraph(String graphName, Handler<AsyncResult<Void>> handler) {
+            handler.handle(Future.succeededFuture());
+        }
+
+        @Override
+        public void queryStream(String query, String accept, long timeout, Handler<AsyncResult<ReadStream<Buffer>>> handler) {
+            handler.handle(Future.failedFuture("not supported"));
+        }
+    }
+}
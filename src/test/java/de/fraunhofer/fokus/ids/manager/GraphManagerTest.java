@@ -0,0 +1,229 @@
+package de.fraunhofer.fokus.ids.manager;
+
+import de.fraunhofer.fokus.ids.Fixtures;
+import de.fraunhofer.fokus.ids.utils.JsonLdContextResolver;
+import de.fraunhofer.fokus.ids.utils.TripleStore;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.web.client.WebClient;
+import org.apache.jena.rdf.model.Model;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Order of the writes GraphManager issues to the triple store. The store holds every write until the test completes
+ * it, so the tests see which writes were issued while others were still running.
+ */
+public class GraphManagerTest {
+
+    private static final String A = Fixtures.resourceId(0, 0);
+    private static final String B = Fixtures.resourceId(0, 1);
+
+    private Vertx vertx;
+    private HoldingTripleStore tripleStore;
+    private GraphManager graphManager;
+    private BlockingQueue<AsyncResult<Void>> results;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        tripleStore = new HoldingTripleStore();
+        graphManager = new GraphManager(vertx, tripleStore, Fixtures.contextResolver(vertx));
+        results = new LinkedBlockingQueue<>();
+    }
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void writesToTheSameGraphInIssueOrder() throws Exception {
+        graphManager.create(A, resource(0, "1.0"), results::add);
+        graphManager.create(A, resource(0, "2.0"), results::add);
+        graphManager.delete(A, results::add);
+
+        Write first = tripleStore.next();
+        assertEquals("put " + A, first.operation);
+        assertEquals("1.0", first.version(A));
+        tripleStore.assertIdle();
+
+        first.complete();
+        Write second = tripleStore.next();
+        assertEquals("2.0", second.version(A));
+        tripleStore.assertIdle();
+
+        second.complete();
+        assertEquals("delete " + A, tripleStore.next().operation);
+    }
+
+    @Test
+    public void writesToDifferentGraphsConcurrently() throws Exception {
+        graphManager.create(A, resource(0, "1.0"), results::add);
+        graphManager.create(B, resource(1, "1.0"), results::add);
+
+        Set<String> operations = new HashSet<>(Arrays.asList(tripleStore.next().operation, tripleStore.next().operation));
+        assertEquals(new HashSet<>(Arrays.asList("put " + A, "put " + B)), operations);
+    }
+
+    @Test
+    public void batchWaitsForEachOfItsGraphsAndIsWaitedFor() throws Exception {
+        graphManager.create(A, resource(0, "1.0"), results::add);
+        Map<String, String> batch = new LinkedHashMap<>();
+        batch.put(A, resource(0, "2.0"));
+        batch.put(B, resource(1, "2.0"));
+        graphManager.createAll(batch, results::add);
+        graphManager.delete(B, results::add);
+
+        Write single = tripleStore.next();
+        tripleStore.assertIdle();
+
+        single.complete();
+        Write batchWrite = tripleStore.next();
+        assertEquals("putAll " + A + " " + B, batchWrite.operation);
+        assertEquals("2.0", batchWrite.version(B));
+        tripleStore.assertIdle();
+
+        batchWrite.complete();
+        assertEquals("delete " + B, tripleStore.next().operation);
+    }
+
+    @Test
+    public void overlappingBatchesRunInIssueOrderWithoutDeadlock() throws Exception {
+        Map<String, String> first = new LinkedHashMap<>();
+        first.put(A, resource(0, "1.0"));
+        first.put(B, resource(1, "1.0"));
+        Map<String, String> second = new LinkedHashMap<>();
+        second.put(B, resource(1, "2.0"));
+        second.put(A, resource(0, "2.0"));
+        graphManager.createAll(first, results::add);
+        graphManager.createAll(second, results::add);
+
+        Write firstWrite = tripleStore.next();
+        assertEquals("1.0", firstWrite.version(A));
+        tripleStore.assertIdle();
+        firstWrite.complete();
+        assertEquals("2.0", tripleStore.next().version(A));
+    }
+
+    @Test
+    public void failedWriteReleasesTheNextOne() throws Exception {
+        graphManager.create(A, resource(0, "1.0"), results::add);
+        graphManager.create(A, resource(0, "2.0"), results::add);
+
+        tripleStore.next().fail("store unavailable");
+        assertTrue(results.poll(5, TimeUnit.SECONDS).failed());
+        Write second = tripleStore.next();
+        assertEquals("2.0", second.version(A));
+        second.complete();
+        assertTrue(results.poll(5, TimeUnit.SECONDS).succeeded());
+    }
+
+    @Test
+    public void unparsableDocumentFailsWithoutBlockingTheGraph() throws Exception {
+        graphManager.create(A, "{\"@context\": ", results::add);
+        graphManager.create(A, resource(0, "2.0"), results::add);
+
+        assertTrue(results.poll(5, TimeUnit.SECONDS).failed());
+        assertEquals("2.0", tripleStore.next().version(A));
+    }
+
+    @Test
+    public void failsWritesWhileOnlyTheDegradedContextIsAvailable() throws Exception {
+        JsonLdContextResolver degraded = new JsonLdContextResolver(vertx, WebClient.create(vertx), new JsonObject()
+                .put("url", "http://127.0.0.1:1/context.jsonld")
+                .put("cachePath", new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID() + ".jsonld").getAbsolutePath())
+                .put("refreshInterval", 0L));
+        graphManager = new GraphManager(vertx, tripleStore, degraded);
+        graphManager.create(A, resource(0, "1.0"), results::add);
+
+        AsyncResult<Void> result = results.poll(5, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertTrue(result.failed());
+        assertTrue(degraded.metrics().getBoolean("degraded"));
+        tripleStore.assertIdle();
+    }
+
+    private static String resource(int resource, String version) {
+        return Fixtures.resourceDocument(0, resource).put("ids:version", version).encode();
+    }
+
+    private static class Write {
+        private final String operation;
+        private final Map<String, Model> models;
+        private final Handler<AsyncResult<Void>> handler;
+
+        private Write(String operation, Map<String, Model> models, Handler<AsyncResult<Void>> handler) {
+            this.operation = operation;
+            this.models = models;
+            this.handler = handler;
+        }
+
+        private String version(String graph) {
+            return models.get(graph).listObjectsOfProperty(models.get(graph).createProperty("https://w3id.org/idsa/core/version"))
+                    .next().asLiteral().getLexicalForm();
+        }
+
+        private void complete() {
+            handler.handle(Future.succeededFuture());
+        }
+
+        private void fail(String message) {
+            handler.handle(Future.failedFuture(message));
+        }
+    }
+
+    private static class HoldingTripleStore implements TripleStore {
+        private final BlockingQueue<Write> writes = new LinkedBlockingQueue<>();
+
+        private Write next() throws InterruptedException {
+            Write write = writes.poll(5, TimeUnit.SECONDS);
+            assertNotNull("No write issued.", write);
+            return write;
+        }
+
+        private void assertIdle() throws InterruptedException {
+            Write write = writes.poll(200, TimeUnit.MILLISECONDS);
+            assertNull("Write issued while an earlier write to its graph runs: " + (write != null ? write.operation : null), write);
+        }
+
+        @Override
+        public void getGraph(String graphName, Handler<AsyncResult<String>> handler) {
+            handler.handle(Future.failedFuture("not supported"));
+        }
+
+        @Override
+        public void putGraph(String graphName, Model model, Handler<AsyncResult<Void>> handler) {
+            writes.add(new Write("put " + graphName, Collections.singletonMap(graphName, model), handler));
+        }
+
+        @Override
+        public void putGraphs(Map<String, Model> graphs, Handler<AsyncResult<Void>> handler) {
+            writes.add(new Write("putAll " + String.join(" ", graphs.keySet()), graphs, handler));
+        }
+
+        @Override
+        public void deleteGraph(String graphName, Handler<AsyncResult<Void>> handler) {
+            writes.add(new Write("delete " + graphName, Collections.emptyMap(), handler));
+        }
+
+        @Override
+        public void queryStream(String query, String accept, long timeout, Handler<AsyncResult<ReadStream<Buffer>>> handler) {
+            handler.handle(Future.failedFuture("not supported"));
+        }
+    }
+}
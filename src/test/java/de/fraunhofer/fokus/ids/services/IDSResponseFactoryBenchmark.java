@@ -0,0 +1,96 @@
+package de.fraunhofer.fokus.ids.services;
+
+import de.fraunhofer.fokus.ids.utils.BrokerConfiguration;
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.net.URI;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of the IDS response headers. The *Before benchmarks rebuild the headers the way IDSService did
+ * before IDSResponseFactory: URIs parsed from the configuration, a new DatatypeFactory and a full serialization per
+ * message. Run with -prof gc to compare the allocation per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IDSResponseFactoryBenchmark {
+
+    private static final String TOKEN = "eyJhbGciOiJSUzI1NiIsInR5cCI6IkpXVCIsImtpZCI6ImRlZmF1bHQifQ."
+            + "eyJpc3MiOiJodHRwczovL2RhcHMuZXhhbXBsZS5vcmciLCJhdWQiOiJpZHNjOklEU19DT05ORUNUT1JTX0FMTCJ9.c2lnbmF0dXJl";
+
+    private BrokerConfiguration brokerConfiguration;
+    private IDSResponseFactory responseFactory;
+    private Serializer serializer;
+    private URI correlationMessage;
+
+    @Setup
+    public void setUp() {
+        brokerConfiguration = new BrokerConfiguration(new JsonObject()
+                .put("baseUrl", "https://broker.example.org")
+                .put("title", "Broker")
+                .put("maintainer", "https://example.org"));
+        responseFactory = new IDSResponseFactory(brokerConfiguration);
+        serializer = new Serializer();
+        correlationMessage = URI.create("https://connector.example.org/messages/" + UUID.randomUUID());
+    }
+
+    @Benchmark
+    public Object result() {
+        return responseFactory.result(correlationMessage, TOKEN);
+    }
+
+    @Benchmark
+    public Object resultBefore() throws Exception {
+        JsonObject config = brokerConfiguration.get();
+        return new ResultMessageBuilder(new URI(config.getString("baseUrl") + "/ResultMessage/" + UUID.randomUUID()))
+                ._correlationMessage_(correlationMessage)
+                ._modelVersion_(IDSResponseFactory.INFO_MODEL_VERSION)
+                ._issued_(date())
+                ._issuerConnector_(new URI(config.getString("baseUrl") + "#Broker"))
+                ._securityToken_(new DynamicAttributeTokenBuilder(new URI(config.getString("baseUrl") + "#DAT"))
+                        ._tokenFormat_(TokenFormat.JWT)
+                        ._tokenValue_(TOKEN)
+                        .build())
+                .build();
+    }
+
+    @Benchmark
+    public String rejection() throws Exception {
+        return responseFactory.serializedRejection(RejectionReason.NOT_FOUND, correlationMessage, TOKEN);
+    }
+
+    @Benchmark
+    public String rejectionBefore() throws Exception {
+        JsonObject config = brokerConfiguration.get();
+        RejectionMessage message = new RejectionMessageBuilder(new URI(config.getString("baseUrl") + "/RejectionMessage/" + UUID.randomUUID()))
+                ._correlationMessage_(correlationMessage)
+                ._issued_(date())
+                ._modelVersion_(IDSResponseFactory.INFO_MODEL_VERSION)
+                ._issuerConnector_(new URI(config.getString("baseUrl") + "#Broker"))
+                ._securityToken_(new DynamicAttributeTokenBuilder(new URI(config.getString("baseUrl") + "#DAT"))
+                        ._tokenFormat_(TokenFormat.JWT)
+                        ._tokenValue_(TOKEN)
+                        .build())
+                ._rejectionReason_(RejectionReason.NOT_FOUND)
+                .build();
+        return serializer.serialize(message);
+    }
+
+    private XMLGregorianCalendar date() throws Exception {
+        GregorianCalendar c = new GregorianCalendar();
+        c.setTime(new Date());
+        return DatatypeFactory.newInstance().newXMLGregorianCalendar(c);
+    }
+}
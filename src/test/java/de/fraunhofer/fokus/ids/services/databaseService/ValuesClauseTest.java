@@ -0,0 +1,63 @@
+package de.fraunhofer.fokus.ids.services.databaseService;
+
+import io.vertx.core.json.JsonArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ValuesClauseTest {
+
+    private static final String INSERT = "INSERT INTO datasets (created_at, external_id, internal_id) values (NOW(),?,?)";
+
+    @Test
+    public void repeatsTheValuesRowOncePerRow() {
+        List<Statement> statements = ValuesClause.statements(INSERT, Arrays.asList(new JsonArray().add("a").add("1"), new JsonArray().add("b").add("2")));
+
+        assertEquals(1, statements.size());
+        assertEquals("INSERT INTO datasets (created_at, external_id, internal_id) values (NOW(),?,?),(NOW(),?,?)", statements.get(0).query);
+        assertEquals(new JsonArray().add("a").add("1").add("b").add("2"), statements.get(0).params);
+    }
+
+    @Test
+    public void keepsTheRestOfTheStatement() {
+        List<Statement> statements = ValuesClause.statements("INSERT INTO t (a) VALUES (?) ON CONFLICT DO NOTHING",
+                Arrays.asList(new JsonArray().add(1), new JsonArray().add(2)));
+
+        assertEquals("INSERT INTO t (a) VALUES (?),(?) ON CONFLICT DO NOTHING", statements.get(0).query);
+    }
+
+    @Test
+    public void splitsIntoChunksOfAtMostChunkSizeValues() {
+        List<JsonArray> rows = new ArrayList<>();
+        for (int i = 0; i < 1001; i++) {
+            rows.add(new JsonArray().add("external" + i).add("internal" + i));
+        }
+        List<Statement> statements = ValuesClause.statements(INSERT, rows);
+
+        assertEquals(3, statements.size());
+        assertEquals(InClause.CHUNK_SIZE, statements.get(0).params.size());
+        assertEquals(InClause.CHUNK_SIZE, statements.get(1).params.size());
+        assertEquals(2, statements.get(2).params.size());
+        assertEquals("internal1000", statements.get(2).params.getString(1));
+    }
+
+    @Test
+    public void returnsNoStatementsForNoRows() {
+        assertEquals(Collections.emptyList(), ValuesClause.statements(INSERT, Collections.emptyList()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRowsNotMatchingTheValuesRow() {
+        ValuesClause.statements(INSERT, Collections.singletonList(new JsonArray().add("a")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsStatementsWithoutValuesRow() {
+        ValuesClause.statements("DELETE FROM datasets WHERE internal_id = ?", Collections.singletonList(new JsonArray().add("a")));
+    }
+}
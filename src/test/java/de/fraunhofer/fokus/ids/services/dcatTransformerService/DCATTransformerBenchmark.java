@@ -0,0 +1,77 @@
+package de.fraunhofer.fokus.ids.services.dcatTransformerService;
+
+import de.fraunhofer.fokus.ids.Fixtures;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dataset transformation throughput of DCATTransformer by size of its worker pool, the workerPoolSize of the
+ * dcatTransformer in DEPLOYMENT_CONFIG. Each invocation transforms the resources of one connector update at once, as
+ * UpdateController does; a pool of one thread runs them one after another, as before the pool was configurable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DCATTransformerBenchmark {
+
+    private static final int RESOURCES = 64;
+
+    @Param({"1", "2", "4", "8"})
+    public int workerPoolSize;
+
+    private Vertx vertx;
+    private WorkerExecutor workerExecutor;
+    private DCATTransformer dcatTransformer;
+    private List<Resource> resources;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        workerExecutor = vertx.createSharedWorkerExecutor("dcatTransformer", workerPoolSize);
+        dcatTransformer = new DCATTransformer(workerExecutor);
+        Serializer serializer = new Serializer();
+        resources = new ArrayList<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            resources.add(serializer.deserialize(Fixtures.resourceDocument(0, i).encode(), Resource.class));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        workerExecutor.close();
+        vertx.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RESOURCES)
+    public int transformDatasets() throws Exception {
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(RESOURCES);
+        AtomicInteger length = new AtomicInteger();
+        for (Resource resource : resources) {
+            dcatTransformer.transformDataset(resource, "2020-06-01T00:00:00Z", ar -> {
+                if (ar.failed()) {
+                    done.completeExceptionally(ar.cause());
+                    return;
+                }
+                length.addAndGet(ar.result().length());
+                if (pending.decrementAndGet() == 0) {
+                    done.complete(length.get());
+                }
+            });
+        }
+        return done.get(1, TimeUnit.MINUTES);
+    }
+}
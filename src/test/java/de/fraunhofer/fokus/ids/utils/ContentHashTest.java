@@ -0,0 +1,62 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import de.fraunhofer.fokus.ids.Fixtures;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ContentHashTest {
+
+    @Test
+    public void isHexEncodedSha256() {
+        assertTrue(ContentHash.of(Fixtures.resource(0, 0).encode()).matches("[0-9a-f]{64}"));
+    }
+
+    @Test
+    public void ignoresKeyOrderAndFormatting() {
+        JsonObject resource = Fixtures.resource(0, 0);
+        JsonObject reordered = new JsonObject();
+        resource.fieldNames().stream().sorted((a, b) -> b.compareTo(a)).forEach(key -> reordered.put(key, resource.getValue(key)));
+
+        assertEquals(ContentHash.of(resource.encode()), ContentHash.of(reordered.encodePrettily()));
+    }
+
+    @Test
+    public void ignoresGeneratedIdsOfNestedObjects() {
+        JsonObject resource = Fixtures.resource(0, 0);
+        JsonObject regenerated = resource.copy();
+        regenerated.getJsonArray("ids:resourceEndpoint").getJsonObject(0).put("@id", "https://w3id.org/idsa/autogen/staticEndpoint/" + UUID.randomUUID());
+        resource.getJsonArray("ids:resourceEndpoint").getJsonObject(0).put("@id", "https://w3id.org/idsa/autogen/staticEndpoint/" + UUID.randomUUID());
+
+        assertEquals(ContentHash.of(resource.encode()), ContentHash.of(regenerated.encode()));
+    }
+
+    @Test
+    public void keepsIdsChosenByTheConnector() {
+        JsonObject resource = Fixtures.resource(0, 0);
+        JsonObject renamed = resource.copy().put("@id", Fixtures.resourceId(0, 1));
+
+        assertNotEquals(ContentHash.of(resource.encode()), ContentHash.of(renamed.encode()));
+    }
+
+    @Test
+    public void changesWithNestedValues() {
+        JsonObject resource = Fixtures.resource(0, 0);
+        JsonObject changed = resource.copy();
+        changed.getJsonArray("ids:resourceEndpoint").getJsonObject(0).getJsonObject("ids:endpointArtifact").put("ids:fileName", "other.csv");
+
+        assertNotEquals(ContentHash.of(resource.encode()), ContentHash.of(changed.encode()));
+    }
+
+    @Test
+    public void keepsArrayOrder() {
+        JsonObject first = new JsonObject().put("ids:keyword", new JsonArray().add("a").add("b"));
+        JsonObject second = new JsonObject().put("ids:keyword", new JsonArray().add("b").add("a"));
+
+        assertNotEquals(ContentHash.of(first.encode()), ContentHash.of(second.encode()));
+    }
+}
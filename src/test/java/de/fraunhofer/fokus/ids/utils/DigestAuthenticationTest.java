@@ -0,0 +1,111 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class DigestAuthenticationTest {
+
+    private static final String CHALLENGE = "Digest realm=\"testrealm@host.com\", qop=\"auth,auth-int\", "
+            + "nonce=\"dcd98b7102dd2f0e8b11d0f600bfb0c093\", opaque=\"5ccc069c403ebaf9f0171e9517f40e41\"";
+    private static final Pattern PARAMETER = Pattern.compile("(\\w+)=(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,\\s]*))");
+
+    private final DigestAuthentication digestAuthentication = new DigestAuthentication("Mufasa", "Circle Of Life");
+
+    @Test
+    public void authorizesNothingBeforeFirstChallenge() {
+        assertNull(digestAuthentication.authorization("GET", "/sparql"));
+    }
+
+    @Test
+    public void repeatsAfterFirstChallengeOnly() {
+        assertTrue(digestAuthentication.challenge(CHALLENGE, false));
+        assertFalse(digestAuthentication.challenge(CHALLENGE, true));
+    }
+
+    @Test
+    public void repeatsAfterStaleNonce() {
+        digestAuthentication.challenge(CHALLENGE, false);
+        assertTrue(digestAuthentication.challenge("Digest realm=\"testrealm@host.com\", nonce=\"fresh\", stale=TRUE", true));
+        assertEquals("fresh", parameters(digestAuthentication.authorization("GET", "/sparql")).get("nonce"));
+    }
+
+    @Test
+    public void ignoresOtherSchemesAndChallengesWithoutNonce() {
+        assertFalse(digestAuthentication.challenge(null, false));
+        assertFalse(digestAuthentication.challenge("Basic realm=\"virtuoso\"", false));
+        assertFalse(digestAuthentication.challenge("Digest realm=\"virtuoso\"", false));
+        assertNull(digestAuthentication.authorization("GET", "/sparql"));
+    }
+
+    @Test
+    public void computesResponseOfRfc2617() {
+        digestAuthentication.challenge(CHALLENGE, false);
+        Map<String, String> authorization = parameters(digestAuthentication.authorization("GET", "/dir/index.html"));
+
+        assertEquals("Mufasa", authorization.get("username"));
+        assertEquals("testrealm@host.com", authorization.get("realm"));
+        assertEquals("/dir/index.html", authorization.get("uri"));
+        assertEquals("auth", authorization.get("qop"));
+        assertEquals("00000001", authorization.get("nc"));
+        assertEquals("5ccc069c403ebaf9f0171e9517f40e41", authorization.get("opaque"));
+        String ha1 = DigestUtils.md5Hex("Mufasa:testrealm@host.com:Circle Of Life");
+        String ha2 = DigestUtils.md5Hex("GET:/dir/index.html");
+        assertEquals(DigestUtils.md5Hex(ha1 + ":dcd98b7102dd2f0e8b11d0f600bfb0c093:00000001:" + authorization.get("cnonce") + ":auth:" + ha2),
+                authorization.get("response"));
+    }
+
+    @Test
+    public void readsQuotedAndEscapedParameters() {
+        digestAuthentication.challenge("Digest realm=\"say \\\"hi\\\", virtuoso\",nonce=abc123", false);
+        String authorization = digestAuthentication.authorization("GET", "/sparql");
+        assertTrue(authorization, authorization.contains("realm=\"say \\\"hi\\\", virtuoso\""));
+        assertTrue(authorization, authorization.contains("nonce=\"abc123\""));
+        assertFalse(authorization, authorization.contains("opaque"));
+    }
+
+    @Test
+    public void countsNonceUsesAndRestartsWithNewChallenge() {
+        digestAuthentication.challenge(CHALLENGE, false);
+        assertEquals("00000001", parameters(digestAuthentication.authorization("GET", "/sparql")).get("nc"));
+        assertEquals("00000002", parameters(digestAuthentication.authorization("POST", "/sparql-auth")).get("nc"));
+        digestAuthentication.challenge("Digest realm=\"testrealm@host.com\", nonce=\"next\"", false);
+        Map<String, String> authorization = parameters(digestAuthentication.authorization("GET", "/sparql"));
+        assertEquals("next", authorization.get("nonce"));
+        assertEquals("00000001", authorization.get("nc"));
+    }
+
+    @Test
+    public void neverReusesNonceCountAcrossThreads() throws Exception {
+        digestAuthentication.challenge(CHALLENGE, false);
+        Set<String> counts = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> counts.add(parameters(digestAuthentication.authorization("GET", "/sparql")).get("nc")));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1000, counts.size());
+    }
+
+    private static Map<String, String> parameters(String authorization) {
+        assertTrue(authorization, authorization.startsWith("Digest "));
+        Map<String, String> parameters = new HashMap<>();
+        Matcher matcher = PARAMETER.matcher(authorization.substring(7));
+        while (matcher.find()) {
+            parameters.put(matcher.group(1), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+        }
+        return parameters;
+    }
+}
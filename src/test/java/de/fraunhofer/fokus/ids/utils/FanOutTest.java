@@ -0,0 +1,129 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class FanOutTest {
+
+    @Test
+    public void completesEmptyCollectionsImmediately() {
+        List<AsyncResult<List<Object>>> results = new ArrayList<>();
+        new FanOut(new JsonObject()).all(Collections.emptyList(), (item, handler) -> fail(), results::add);
+        assertEquals(1, results.size());
+        assertEquals(Collections.emptyList(), results.get(0).result());
+    }
+
+    @Test
+    public void runsAtMostWindowTasksAtOnce() {
+        List<Handler<AsyncResult<Integer>>> pending = new ArrayList<>();
+        List<Integer> started = new ArrayList<>();
+        List<AsyncResult<List<Integer>>> results = new ArrayList<>();
+        new FanOut(new JsonObject().put("window", 2)).<Integer, Integer>all(Arrays.asList(0, 1, 2, 3, 4), (item, handler) -> {
+            started.add(item);
+            pending.add(handler);
+        }, results::add);
+
+        assertEquals(Arrays.asList(0, 1), started);
+        pending.get(1).handle(Future.succeededFuture(10));
+        assertEquals(Arrays.asList(0, 1, 2), started);
+        pending.get(0).handle(Future.succeededFuture(0));
+        pending.get(2).handle(Future.succeededFuture(20));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), started);
+        assertTrue(results.isEmpty());
+        pending.get(4).handle(Future.succeededFuture(40));
+        pending.get(3).handle(Future.succeededFuture(30));
+
+        assertEquals(1, results.size());
+        assertEquals(Arrays.asList(0, 10, 20, 30, 40), results.get(0).result());
+    }
+
+    @Test
+    public void runsEveryTaskAndReportsFailuresByIndex() {
+        List<Integer> started = new ArrayList<>();
+        List<AsyncResult<List<Integer>>> results = new ArrayList<>();
+        new FanOut(new JsonObject().put("window", 1)).<Integer, Integer>all(Arrays.asList(0, 1, 2, 3), (item, handler) -> {
+            started.add(item);
+            if (item == 1) {
+                handler.handle(Future.failedFuture("item 1 failed"));
+            } else if (item == 3) {
+                throw new IllegalStateException("item 3 failed");
+            } else {
+                handler.handle(Future.succeededFuture(item));
+            }
+        }, results::add);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3), started);
+        assertTrue(results.get(0).failed());
+        FanOut.FanOutException failure = (FanOut.FanOutException) results.get(0).cause();
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(failure.getFailures().keySet()));
+        assertEquals("item 1 failed", failure.getFailures().get(1).getMessage());
+        assertTrue(failure.getFailures().get(3) instanceof IllegalStateException);
+        assertTrue(failure.getMessage(), failure.getMessage().startsWith("2 of 4 tasks failed"));
+    }
+
+    @Test
+    public void ignoresRepeatedCompletionsOfATask() {
+        List<AsyncResult<List<Integer>>> results = new ArrayList<>();
+        new FanOut(new JsonObject().put("window", 1)).<Integer, Integer>all(Arrays.asList(0, 1), (item, handler) -> {
+            handler.handle(Future.succeededFuture(item));
+            handler.handle(Future.failedFuture("completed twice"));
+        }, results::add);
+
+        assertEquals(1, results.size());
+        assertEquals(Arrays.asList(0, 1), results.get(0).result());
+    }
+
+    @Test
+    public void doesNotNestSynchronousCompletions() {
+        List<Integer> items = IntStream.range(0, 100000).boxed().collect(Collectors.toList());
+        List<AsyncResult<List<Integer>>> results = new ArrayList<>();
+        new FanOut(new JsonObject().put("window", 4)).<Integer, Integer>all(items, (item, handler) -> handler.handle(Future.succeededFuture(item)), results::add);
+
+        assertEquals(items, results.get(0).result());
+    }
+
+    @Test
+    public void completesOnceWithTasksCompletingOnOtherThreads() throws Exception {
+        List<Integer> items = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        AtomicInteger completions = new AtomicInteger();
+        CompletableFuture<List<Integer>> result = new CompletableFuture<>();
+        try {
+            new FanOut(new JsonObject().put("window", 5)).<Integer, Integer>all(items, (item, handler) -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                executor.execute(() -> {
+                    active.decrementAndGet();
+                    handler.handle(Future.succeededFuture(item * 2));
+                });
+            }, ar -> {
+                completions.incrementAndGet();
+                result.complete(ar.result());
+            });
+
+            assertEquals(items.stream().map(item -> item * 2).collect(Collectors.toList()), result.get(10, TimeUnit.SECONDS));
+            assertEquals(1, completions.get());
+            assertTrue("window exceeded: " + maxActive.get(), maxActive.get() <= 5);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import de.fraunhofer.fokus.ids.services.databaseService.DatabaseService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ServiceBinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Migration order and bookkeeping of InitService against a recording DatabaseService. The SQL of the migrations is not
+ * run against PostgreSQL here; checks return the rows set in conflicts and a failing statement rolls back its migration.
+ */
+@RunWith(VertxUnitRunner.class)
+public class InitServiceTest {
+
+    private Vertx vertx;
+    private RecordingDatabaseService database;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        database = new RecordingDatabaseService();
+        new ServiceBinder(vertx).setAddress(DatabaseService.ADDRESS).register(DatabaseService.class, database);
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void migratesEmptySchemaToLatestVersion(TestContext context) {
+        Async async = context.async();
+        new InitService(vertx).initDatabase(context.asyncAssertSuccess(v -> {
+            context.assertEquals(Arrays.asList(1, 2, 3, 4), database.recordedVersions());
+            context.assertTrue(database.statements.get(0).startsWith("CREATE TABLE IF NOT EXISTS schema_version"));
+            context.assertTrue(database.statements.get(1).startsWith("CREATE TABLE IF NOT EXISTS catalogues"));
+            context.assertTrue(database.statements.indexOf(versionStatement(1)) < database.statements.indexOf("ALTER TABLE datasets ADD COLUMN IF NOT EXISTS content_hash TEXT"));
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void runsOnlyMigrationsNewerThanRecordedVersion(TestContext context) {
+        database.version = 2;
+        Async async = context.async();
+        new InitService(vertx).initDatabase(context.asyncAssertSuccess(v -> {
+            context.assertEquals(Arrays.asList(3, 4), database.recordedVersions());
+            context.assertFalse(database.statements.stream().anyMatch(s -> s.startsWith("CREATE TABLE IF NOT EXISTS catalogues")));
+            context.assertFalse(database.statements.stream().anyMatch(s -> s.startsWith("CREATE UNIQUE INDEX")));
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void leavesUpToDateSchemaUntouched(TestContext context) {
+        database.version = 4;
+        Async async = context.async();
+        new InitService(vertx).initDatabase(context.asyncAssertSuccess(v -> {
+            context.assertEquals(Collections.emptyList(), database.recordedVersions());
+            context.assertEquals(1, database.statements.size());
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void stopsAtFailingStatementWithoutRecordingItsVersion(TestContext context) {
+        database.failing = "ALTER TABLE datasets ADD COLUMN IF NOT EXISTS catalogue_id";
+        Async async = context.async();
+        new InitService(vertx).initDatabase(context.asyncAssertFailure(cause -> {
+            context.assertEquals(Arrays.asList(1, 2), database.recordedVersions());
+            context.assertFalse(database.statements.contains("ALTER TABLE datasets ADD COLUMN IF NOT EXISTS content_hash TEXT"));
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void abortsUniqueIndexMigrationOnConflictingDuplicates(TestContext context) {
+        database.version = 1;
+        database.conflicts = Collections.singletonList(new JsonObject().put("id", 2).put("internal_id", "internal").put("external_id", "other"));
+        Async async = context.async();
+        new InitService(vertx).initDatabase(context.asyncAssertFailure(cause -> {
+            context.assertTrue(cause.getMessage().contains("aborted"), cause.getMessage());
+            context.assertTrue(cause.getMessage().contains("other"), cause.getMessage());
+            context.assertEquals(Collections.emptyList(), database.recordedVersions());
+            context.assertFalse(database.statements.stream().anyMatch(s -> s.startsWith("DELETE FROM")));
+            async.complete();
+        }));
+    }
+
+    private static String versionStatement(int version) {
+        return "INSERT INTO schema_version#" + version;
+    }
+
+    private static class RecordingDatabaseService implements DatabaseService {
+        private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+        private int version;
+        private String failing;
+        private List<JsonObject> conflicts = Collections.emptyList();
+
+        private List<Integer> recordedVersions() {
+            return statements.stream()
+                    .filter(s -> s.startsWith("INSERT INTO schema_version#"))
+                    .map(s -> Integer.parseInt(s.substring(s.indexOf('#') + 1)))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public DatabaseService query(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            if (query.contains("FROM schema_version")) {
+                resultHandler.handle(Future.succeededFuture(Collections.singletonList(new JsonObject().put("version", version))));
+            } else if (query.startsWith("SELECT DISTINCT")) {
+                resultHandler.handle(Future.succeededFuture(conflicts));
+            } else {
+                resultHandler.handle(Future.succeededFuture(Collections.emptyList()));
+            }
+            return this;
+        }
+
+        @Override
+        public DatabaseService update(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            if (failing != null && query.startsWith(failing)) {
+                resultHandler.handle(Future.failedFuture("statement failed"));
+                return this;
+            }
+            statements.add(query.startsWith("INSERT INTO schema_version") ? "INSERT INTO schema_version#" + params.getInteger(0) : query);
+            resultHandler.handle(Future.succeededFuture(Collections.emptyList()));
+            return this;
+        }
+
+        @Override
+        public DatabaseService batchUpdate(String query, List<JsonArray> params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            resultHandler.handle(Future.failedFuture("not supported"));
+            return this;
+        }
+
+        @Override
+        public DatabaseService updateAll(List<String> queries, List<JsonArray> params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            List<String> transaction = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                String query = queries.get(i);
+                if (failing != null && query.startsWith(failing)) {
+                    resultHandler.handle(Future.failedFuture("statement failed"));
+                    return this;
+                }
+                transaction.add(query.startsWith("INSERT INTO schema_version") ? "INSERT INTO schema_version#" + params.get(i).getInteger(0) : query);
+            }
+            statements.addAll(transaction);
+            resultHandler.handle(Future.succeededFuture(Collections.emptyList()));
+            return this;
+        }
+
+        @Override
+        public DatabaseService insertAll(String query, List<JsonArray> rows, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            resultHandler.handle(Future.failedFuture("not supported"));
+            return this;
+        }
+
+        @Override
+        public DatabaseService updateIn(String query, JsonArray params, JsonArray values, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            resultHandler.handle(Future.failedFuture("not supported"));
+            return this;
+        }
+
+        @Override
+        public DatabaseService queryIn(String query, JsonArray params, JsonArray values, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            resultHandler.handle(Future.failedFuture("not supported"));
+            return this;
+        }
+
+        @Override
+        public DatabaseService metrics(Handler<AsyncResult<JsonObject>> resultHandler) {
+            resultHandler.handle(Future.failedFuture("not supported"));
+            return this;
+        }
+    }
+}
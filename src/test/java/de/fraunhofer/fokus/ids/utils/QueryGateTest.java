@@ -0,0 +1,150 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import de.fraunhofer.iais.eis.RejectionReason;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class QueryGateTest {
+
+    private static final String CONNECTOR = "https://connector.example.org#Connector";
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void limitsUnboundedAndOversizedQueries(TestContext context) {
+        QueryGate gate = new QueryGate(vertx, new JsonObject().put("maxLimit", 100));
+        context.assertEquals(100L, QueryFactory.create(gate.prepare("SELECT * WHERE { ?s ?p ?o }")).getLimit());
+        context.assertEquals(100L, QueryFactory.create(gate.prepare("SELECT * WHERE { ?s ?p ?o } LIMIT 5000")).getLimit());
+        context.assertEquals(10L, QueryFactory.create(gate.prepare("SELECT * WHERE { ?s ?p ?o } LIMIT 10")).getLimit());
+        context.assertEquals(100L, QueryFactory.create(gate.prepare("CONSTRUCT WHERE { ?s ?p ?o }")).getLimit());
+        context.assertEquals(Query.NOLIMIT, QueryFactory.create(gate.prepare("ASK { ?s ?p ?o }")).getLimit());
+        context.assertEquals(3L, gate.metrics().getLong("limited"));
+    }
+
+    @Test
+    public void rejectsUnparsableQueriesAndUpdates(TestContext context) {
+        QueryGate gate = new QueryGate(vertx, new JsonObject());
+        assertRejected(context, gate, "SELECT * WHERE { ?s ?p", RejectionReason.BAD_PARAMETERS);
+        assertRejected(context, gate, "DROP ALL", RejectionReason.BAD_PARAMETERS);
+        assertRejected(context, gate, "INSERT DATA { <urn:a> <urn:b> <urn:c> }", RejectionReason.BAD_PARAMETERS);
+        context.assertEquals(3L, gate.metrics().getLong("rejectedMalformed"));
+    }
+
+    @Test
+    public void rejectsUnboundedQueriesIfConfigured(TestContext context) {
+        QueryGate gate = new QueryGate(vertx, new JsonObject().put("maxLimit", 100).put("rejectUnbounded", true));
+        assertRejected(context, gate, "SELECT * WHERE { ?s ?p ?o }", RejectionReason.TOO_MANY_RESULTS);
+        context.assertEquals(50L, QueryFactory.create(gate.prepare("SELECT * WHERE { ?s ?p ?o } LIMIT 50")).getLimit());
+    }
+
+    @Test
+    public void queuesBeyondMaxConcurrentAndRejectsWhenQueueIsFull(TestContext context) {
+        QueryGate gate = new QueryGate(vertx, new JsonObject()
+                .put("maxConcurrent", 1).put("maxQueued", 1).put("ratePerSecond", 0));
+        Async async = context.async();
+        gate.acquire(CONNECTOR, context.asyncAssertSuccess(first -> {
+            gate.acquire(CONNECTOR, context.asyncAssertSuccess(second -> {
+                context.assertEquals(1, gate.metrics().getInteger("active"));
+                context.assertEquals(0, gate.metrics().getInteger("queueDepth"));
+                second.release();
+                context.assertEquals(0, gate.metrics().getInteger("active"));
+                async.complete();
+            }));
+            context.assertEquals(1, gate.metrics().getInteger("queueDepth"));
+            gate.acquire(CONNECTOR, context.asyncAssertFailure(cause -> {
+                context.assertEquals(RejectionReason.TEMPORARILY_NOT_AVAILABLE, ((QueryGate.RejectedQueryException) cause).getRejectionReason());
+                context.assertEquals(1L, gate.metrics().getLong("rejectedQueueFull"));
+                first.release();
+                first.release();
+            }));
+        }));
+    }
+
+    @Test
+    public void limitsConnectorsIndependently(TestContext context) {
+        QueryGate gate = new QueryGate(vertx, new JsonObject()
+                .put("maxConcurrent", 1).put("maxQueued", 0).put("ratePerSecond", 0));
+        Async async = context.async();
+        gate.acquire(CONNECTOR, context.asyncAssertSuccess(first ->
+                gate.acquire(CONNECTOR, context.asyncAssertFailure(cause ->
+                        gate.acquire("https://other.example.org#Connector", context.asyncAssertSuccess(other -> {
+                            context.assertEquals(2, gate.metrics().getInteger("active"));
+                            async.complete();
+                        }))))));
+    }
+
+    @Test
+    public void failsQueriesWaitingLongerThanQueueTimeout(TestContext context) {
+        QueryGate gate = new QueryGate(vertx, new JsonObject()
+                .put("maxConcurrent", 1).put("queueTimeout", 50).put("ratePerSecond", 0));
+        Async async = context.async();
+        gate.acquire(CONNECTOR, context.asyncAssertSuccess(first ->
+                gate.acquire(CONNECTOR, context.asyncAssertFailure(cause -> {
+                    context.assertEquals(RejectionReason.TEMPORARILY_NOT_AVAILABLE, ((QueryGate.RejectedQueryException) cause).getRejectionReason());
+                    context.assertEquals(1L, gate.metrics().getLong("rejectedQueueTimeout"));
+                    context.assertEquals(0, gate.metrics().getInteger("queueDepth"));
+                    async.complete();
+                }))));
+    }
+
+    @Test
+    public void rejectsQueriesAboveRate(TestContext context) {
+        QueryGate gate = new QueryGate(vertx, new JsonObject().put("ratePerSecond", 0.1).put("burst", 2));
+        Async async = context.async();
+        gate.acquire(CONNECTOR, context.asyncAssertSuccess(first ->
+                gate.acquire(CONNECTOR, context.asyncAssertSuccess(second ->
+                        gate.acquire(CONNECTOR, context.asyncAssertFailure(cause -> {
+                            context.assertEquals(RejectionReason.TEMPORARILY_NOT_AVAILABLE, ((QueryGate.RejectedQueryException) cause).getRejectionReason());
+                            context.assertEquals(1L, gate.metrics().getLong("rejectedRate"));
+                            async.complete();
+                        }))))));
+    }
+
+    @Test
+    public void countsCachedQueriesAgainstRateWithoutTakingSlots(TestContext context) {
+        QueryGate gate = new QueryGate(vertx, new JsonObject().put("ratePerSecond", 0.1).put("burst", 2).put("maxConcurrent", 1));
+        gate.admitCached(CONNECTOR);
+        context.assertEquals(0, gate.metrics().getInteger("active"));
+        Async async = context.async();
+        gate.acquire(CONNECTOR, context.asyncAssertSuccess(permit -> {
+            try {
+                gate.admitCached(CONNECTOR);
+                context.fail("Cached query admitted above rate.");
+            } catch (QueryGate.RejectedQueryException e) {
+                context.assertEquals(RejectionReason.TEMPORARILY_NOT_AVAILABLE, e.getRejectionReason());
+            }
+            context.assertEquals(1L, gate.metrics().getLong("admittedCached"));
+            context.assertEquals(1L, gate.metrics().getLong("rejectedRate"));
+            async.complete();
+        }));
+    }
+
+    private void assertRejected(TestContext context, QueryGate gate, String query, RejectionReason rejectionReason) {
+        try {
+            gate.prepare(query);
+            context.fail("Query accepted: " + query);
+        } catch (QueryGate.RejectedQueryException e) {
+            context.assertEquals(rejectionReason, e.getRejectionReason());
+        }
+    }
+}
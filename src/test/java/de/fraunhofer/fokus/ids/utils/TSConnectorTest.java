@@ -0,0 +1,104 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch writes of TSConnector against a server recording the requests Virtuoso would receive.
+ */
+@RunWith(VertxUnitRunner.class)
+public class TSConnectorTest {
+
+    private static final int MAX_BATCH_BYTES = 150;
+
+    private Vertx vertx;
+    private HttpServer server;
+    private List<String> requests;
+    private TSConnector tsConnector;
+
+    @Before
+    public void setUp(TestContext context) {
+        vertx = Vertx.vertx();
+        requests = Collections.synchronizedList(new ArrayList<>());
+        server = vertx.createHttpServer().requestHandler(request -> request.bodyHandler(body -> {
+            requests.add(request.method() + " " + (request.getParam("graph") != null ? request.getParam("graph") : body.toString()));
+            request.response().setStatusCode(204).end();
+        }));
+        server.listen(0, context.asyncAssertSuccess(listening -> tsConnector = TSConnector.create(vertx,
+                HttpClientPool.create(vertx, "virtuoso", new JsonObject()), null, new JsonObject()
+                        .put("address", "http://localhost:" + listening.actualPort())
+                        .put("maxBatchBytes", MAX_BATCH_BYTES))));
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void sendsGraphsInBatchesOfAtMostMaxBatchBytes(TestContext context) {
+        Map<String, Model> graphs = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            graphs.put("urn:graph:" + i, model("urn:graph:" + i, 1));
+        }
+        Async async = context.async();
+        tsConnector.putGraphs(graphs, context.asyncAssertSuccess(v -> {
+            context.assertTrue(requests.size() > 1, "Graphs not split: " + requests);
+            int graph = 0;
+            for (String request : requests) {
+                context.assertTrue(request.startsWith("POST CLEAR SILENT GRAPH"), request);
+                context.assertTrue(request.length() - "POST ".length() <= MAX_BATCH_BYTES + 300, "Batch too large: " + request);
+                while (graph < graphs.size() && request.contains("GRAPH <urn:graph:" + graph + "> {")) {
+                    graph++;
+                }
+            }
+            context.assertEquals(graphs.size(), graph, "Graphs missing or out of order: " + requests);
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void uploadsGraphsLargerThanMaxBatchBytesOnTheirOwn(TestContext context) {
+        Map<String, Model> graphs = new LinkedHashMap<>();
+        graphs.put("urn:graph:small", model("urn:graph:small", 1));
+        graphs.put("urn:graph:large", model("urn:graph:large", 50));
+        graphs.put("urn:graph:last", model("urn:graph:last", 1));
+        Async async = context.async();
+        tsConnector.putGraphs(graphs, context.asyncAssertSuccess(v -> {
+            context.assertEquals(3, requests.size(), requests.toString());
+            context.assertTrue(requests.get(0).contains("GRAPH <urn:graph:small> {"), requests.get(0));
+            context.assertEquals("PUT urn:graph:large", requests.get(1));
+            context.assertTrue(requests.get(2).contains("GRAPH <urn:graph:last> {"), requests.get(2));
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void sendsNothingForNoGraphs(TestContext context) {
+        tsConnector.putGraphs(Collections.emptyMap(), context.asyncAssertSuccess(v -> context.assertTrue(requests.isEmpty())));
+    }
+
+    private static Model model(String graph, int triples) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < triples; i++) {
+            model.createResource(graph + "#resource").addProperty(model.createProperty("https://w3id.org/idsa/core/title"), "Title " + i);
+        }
+        return model;
+    }
+}
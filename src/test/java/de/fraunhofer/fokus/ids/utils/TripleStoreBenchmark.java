@@ -0,0 +1,135 @@
+package de.fraunhofer.fokus.ids.utils;
+
+import de.fraunhofer.fokus.ids.Fixtures;
+import de.fraunhofer.fokus.ids.manager.GraphManager;
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.circuitbreaker.CircuitBreakerOptions;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Register and query throughput of the embedded TDB2 store and Virtuoso. Virtuoso is only benchmarked if
+ * VIRTUOSO_ADDRESS is set in the environment, with VIRTUOSO_USER and VIRTUOSO_PASSWORD for its Digest authentication;
+ * the benchmark graphs are deleted afterwards. Run through main, which selects the stores:
+ * mvn -Pbenchmark test-compile exec:java -Dbenchmark.main=de.fraunhofer.fokus.ids.utils.TripleStoreBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TripleStoreBenchmark {
+
+    private static final int CONNECTORS = 100;
+    private static final int RESOURCES = 20;
+    private static final String QUERY = "PREFIX ids: <https://w3id.org/idsa/core/>\n"
+            + "SELECT ?resource ?title WHERE { GRAPH ?g { ?connector ids:catalog/ids:offer ?resource . ?resource ids:title ?title } } LIMIT 100";
+
+    @Param({"tdb2"})
+    public String store;
+
+    private Vertx vertx;
+    private TripleStore tripleStore;
+    private GraphManager graphManager;
+    private List<String> connectors;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        if ("virtuoso".equals(store)) {
+            HttpClientPool pool = HttpClientPool.create(vertx, "virtuoso", new JsonObject());
+            CircuitBreaker breaker = CircuitBreaker.create("virtuoso", vertx, new CircuitBreakerOptions().setMaxRetries(0).setTimeout(-1));
+            tripleStore = TSConnector.create(vertx, pool, breaker, new JsonObject()
+                    .put("address", System.getenv("VIRTUOSO_ADDRESS"))
+                    .put("user", System.getenv("VIRTUOSO_USER"))
+                    .put("password", System.getenv("VIRTUOSO_PASSWORD")));
+        } else {
+            tripleStore = EmbeddedTripleStore.create(vertx, new JsonObject());
+        }
+        graphManager = new GraphManager(vertx, tripleStore, Fixtures.contextResolver(vertx));
+        connectors = new ArrayList<>();
+        for (int i = 0; i < CONNECTORS; i++) {
+            connectors.add(Fixtures.connector(i, RESOURCES).encode());
+        }
+        for (int i = 0; i < CONNECTORS; i++) {
+            register(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (int i = 0; i < CONNECTORS; i++) {
+            String graph = Fixtures.connectorId(i);
+            this.<Void>await(handler -> tripleStore.deleteGraph(graph, handler));
+        }
+        vertx.close();
+    }
+
+    /**
+     * A connector registers again with its description, replacing its graph.
+     */
+    @Benchmark
+    public void register() throws Exception {
+        register((int) (sequence.getAndIncrement() % CONNECTORS));
+    }
+
+    @Benchmark
+    public long query() throws Exception {
+        ReadStream<Buffer> result = this.<ReadStream<Buffer>>await(handler -> tripleStore.queryStream(QUERY, "application/sparql-results+json", 0, handler));
+        CompletableFuture<Long> read = new CompletableFuture<>();
+        AtomicLong bytes = new AtomicLong();
+        result.exceptionHandler(read::completeExceptionally);
+        result.endHandler(v -> read.complete(bytes.get()));
+        result.handler(buffer -> bytes.addAndGet(buffer.length()));
+        result.resume();
+        return read.get(1, TimeUnit.MINUTES);
+    }
+
+    private void register(int connector) throws Exception {
+        this.<Void>await(handler -> graphManager.create(Fixtures.connectorId(connector), connectors.get(connector), handler));
+    }
+
+    private <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(ar -> {
+            if (ar.succeeded()) {
+                future.complete(ar.result());
+            } else {
+                future.completeExceptionally(ar.cause());
+            }
+        });
+        return future.get(1, TimeUnit.MINUTES);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> stores = new ArrayList<>();
+        stores.add("tdb2");
+        if (System.getenv("VIRTUOSO_ADDRESS") != null) {
+            stores.add("virtuoso");
+        } else {
+            System.out.println("VIRTUOSO_ADDRESS not set, benchmarking the embedded store only.");
+        }
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(TripleStoreBenchmark.class.getSimpleName())
+                .param("store", stores.toArray(new String[0]))
+                .build()).run();
+    }
+}